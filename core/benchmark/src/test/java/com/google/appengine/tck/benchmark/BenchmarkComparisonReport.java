@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import com.google.appengine.tck.base.TestBase;
+import com.google.appengine.tck.benchmark.harness.BaselineStore;
+import com.google.appengine.tck.benchmark.harness.ComparisonReport;
+import com.google.appengine.tck.env.Environment;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Writes comparison.txt and comparison.html, the same benchmarks side by side across environments,
+ * into benchmark.comparison.dir (benchmark.results.dir by default).
+ * <p/>
+ * Each environment is its own profile, so the suite runs once per environment, all with the same benchmark.revision
+ * and benchmark.baseline.dir, e.g.
+ * for env in sdk capedwarf appspot gcloud; do mvn verify -Dbenchmark -P$env -Dbenchmark.revision=r1 -Dbenchmark.baseline.dir=... -Dbenchmark.results.dir=...; done
+ * <p/>
+ * The benchmark profile runs this in the verify phase, before the regression gate saves the results;
+ * the report has the current environment's results of this run, from benchmark.results.dir/[environment],
+ * plus every other environment's results of the same revision from the baseline store, so it grows with each environment run.
+ * Results are normalized against benchmark.comparison.reference (APPSPOT), or the first environment with results.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BenchmarkComparisonReport {
+    private static final Logger log = Logger.getLogger(BenchmarkComparisonReport.class.getName());
+
+    @Test
+    public void testComparisonReport() throws Exception {
+        String resultsDir = System.getProperty(BenchmarkTestBase.RESULTS_DIR);
+        Assume.assumeTrue("No benchmark.results.dir set.", resultsDir != null);
+
+        // the current run replaces what is stored for its environment
+        Map<String, Map<String, JSONObject>> byEnvironment = new TreeMap<>();
+        Environment current = TestBase.getEnvironment(BenchmarkComparisonReport.class);
+        Map<String, JSONObject> fresh = BaselineStore.readResults(BenchmarkTestBase.getResultsDirectory(current));
+        if (fresh.isEmpty() == false) {
+            byEnvironment.put(current.name(), fresh);
+        }
+        String baselineDir = System.getProperty("benchmark.baseline.dir");
+        if (baselineDir != null) {
+            BaselineStore store = new BaselineStore(new File(baselineDir));
+            String revision = BenchmarkRegressionGate.getRevision();
+            for (Environment environment : Environment.values()) {
+                if (byEnvironment.containsKey(environment.name()) == false) {
+                    Map<String, JSONObject> results = store.load(environment.name(), revision);
+                    if (results.isEmpty() == false) {
+                        byEnvironment.put(environment.name(), results);
+                    }
+                }
+            }
+        }
+        Assume.assumeTrue("No benchmark results.", byEnvironment.isEmpty() == false);
+
+        ComparisonReport report = new ComparisonReport(getReference(byEnvironment));
+        for (Environment environment : Environment.values()) {
+            Map<String, JSONObject> results = byEnvironment.get(environment.name());
+            if (results != null) {
+                report.add(environment.name(), results);
+            }
+        }
+
+        File dir = new File(System.getProperty("benchmark.comparison.dir", resultsDir));
+        if (dir.exists() == false && dir.mkdirs() == false) {
+            throw new IOException("Cannot create directory: " + dir);
+        }
+        StringWriter table = new StringWriter();
+        report.writeTable(new PrintWriter(table));
+        log.info(">>>> " + table);
+        write(new File(dir, "comparison.txt"), table.toString());
+        StringWriter html = new StringWriter();
+        report.writeHtml(new PrintWriter(html));
+        write(new File(dir, "comparison.html"), html.toString());
+        log.info(String.format(">>>> Benchmark comparison of %s written to %s", report.getEnvironments(), dir));
+    }
+
+    private static String getReference(Map<String, Map<String, JSONObject>> byEnvironment) {
+        String reference = System.getProperty("benchmark.comparison.reference", Environment.APPSPOT.name());
+        if (byEnvironment.containsKey(reference) == false) {
+            for (Environment environment : Environment.values()) {
+                if (byEnvironment.containsKey(environment.name())) {
+                    log.info(String.format(">>>> No %s results, comparing against %s", reference, environment));
+                    return environment.name();
+                }
+            }
+        }
+        return reference;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+            writer.print(content);
+        }
+    }
+}
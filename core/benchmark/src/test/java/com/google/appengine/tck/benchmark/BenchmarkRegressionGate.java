@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.appengine.tck.base.TestBase;
+import com.google.appengine.tck.benchmark.harness.BaselineStore;
+import com.google.appengine.tck.benchmark.harness.MannWhitney;
+import com.google.appengine.tck.benchmark.harness.Statistics;
+import com.google.appengine.tck.env.Environment;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Saves the current environment's results, those in benchmark.results.dir/[environment], into the baseline store
+ * in benchmark.baseline.dir, keyed by environment and git revision, and fails if any of them regressed against the baseline.
+ * The environment is the one of the active profile, the same the benchmarks ran with.
+ * <p/>
+ * The benchmark profile runs this after all benchmarks, in the verify phase, e.g.
+ * mvn verify -Dbenchmark -Psdk -Dbenchmark.results.dir=... -Dbenchmark.baseline.dir=...
+ * <p/>
+ * A benchmark regressed if its mean throughput dropped by more than benchmark.regression.threshold (0.1, i.e. 10%)
+ * and a one-sided Mann-Whitney test over the per-iteration throughput samples is significant at benchmark.regression.alpha (0.05);
+ * with n iterations on each side the smallest possible p-value is 1 / (2n choose n), so 0.05 needs at least four.
+ * Only throughput is gated: latency percentiles and metrics, e.g. push or callback latency, time to first byte or persist lag,
+ * are single values per result, without per-iteration samples to test, so they show in the comparison report but never fail the build.
+ * The baseline is benchmark.baseline.revision, or the latest revision which passed the gate.
+ * The revision is benchmark.revision, or the current git HEAD.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BenchmarkRegressionGate {
+    private static final Logger log = Logger.getLogger(BenchmarkRegressionGate.class.getName());
+
+    @Test
+    public void testRegressions() throws Exception {
+        String resultsDir = System.getProperty(BenchmarkTestBase.RESULTS_DIR);
+        String baselineDir = System.getProperty("benchmark.baseline.dir");
+        Assume.assumeTrue("No benchmark.results.dir or benchmark.baseline.dir set.", resultsDir != null && baselineDir != null);
+
+        double threshold = Double.parseDouble(System.getProperty("benchmark.regression.threshold", "0.1"));
+        double alpha = Double.parseDouble(System.getProperty("benchmark.regression.alpha", "0.05"));
+        String revision = getRevision();
+        BaselineStore store = new BaselineStore(new File(baselineDir));
+
+        Environment env = TestBase.getEnvironment(BenchmarkRegressionGate.class);
+        String environment = env.name();
+        Map<String, JSONObject> current = BaselineStore.readResults(BenchmarkTestBase.getResultsDirectory(env));
+        Assume.assumeTrue(String.format("No %s benchmark results.", environment), current.isEmpty() == false);
+        String baseline = System.getProperty("benchmark.baseline.revision");
+        if (baseline == null) {
+            baseline = store.getLatestPassed(environment, revision);
+        }
+
+        List<String> regressions = new ArrayList<>();
+        if (baseline == null) {
+            log.info(String.format(">>>> No %s baseline yet, %s becomes the first one.", environment, revision));
+        } else {
+            log.info(String.format(">>>> Comparing %s %s results against %s", current.size(), environment, baseline));
+            regressions = compare(environment, store.load(environment, baseline), current, threshold, alpha);
+        }
+        store.save(environment, revision, regressions.isEmpty(), current.values());
+
+        if (regressions.isEmpty() == false) {
+            StringBuilder builder = new StringBuilder();
+            for (String regression : regressions) {
+                builder.append("\n").append(regression);
+            }
+            Assert.fail(String.format("%s benchmark regressions in %s:%s", regressions.size(), revision, builder));
+        }
+    }
+
+    protected static List<String> compare(String environment, Map<String, JSONObject> baseline, Map<String, JSONObject> current, double threshold, double alpha) {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, JSONObject> entry : current.entrySet()) {
+            JSONObject previous = baseline.get(entry.getKey());
+            if (previous == null) {
+                continue; // new benchmark
+            }
+            double[] before = getSamples(previous);
+            double[] after = getSamples(entry.getValue());
+            double mean = new Statistics(before).getMean();
+            double change = (new Statistics(after).getMean() - mean) / mean;
+            double p = MannWhitney.pLess(after, before);
+            String line = String.format("%s %s: %+.1f%% throughput (p = %.4f)", environment, entry.getKey(), change * 100, p);
+            log.info(">>>> " + line);
+            if (change < -threshold && p < alpha) {
+                regressions.add(line);
+            }
+        }
+        return regressions;
+    }
+
+    private static double[] getSamples(JSONObject result) {
+        JSONObject throughput = result.optJSONObject("throughput");
+        JSONArray samples = (throughput != null) ? throughput.optJSONArray("samples") : null;
+        if (samples == null) {
+            return new double[0];
+        }
+        double[] values = new double[samples.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = samples.optDouble(i);
+        }
+        return values;
+    }
+
+    static String getRevision() {
+        String revision = System.getProperty("benchmark.revision");
+        if (revision != null) {
+            return revision;
+        }
+        try {
+            Process process = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"))) {
+                String line = reader.readLine();
+                if (process.waitFor() == 0 && line != null) {
+                    return line.trim();
+                }
+            }
+        } catch (Exception e) {
+            log.warning("Cannot read git revision: " + e);
+        }
+        return "unknown";
+    }
+}
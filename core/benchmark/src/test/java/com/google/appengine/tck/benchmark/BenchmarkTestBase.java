@@ -0,0 +1,267 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.tck.base.TestBase;
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkReporter;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.harness.BenchmarkRunner;
+import com.google.appengine.tck.benchmark.harness.OpenLoopRunner;
+import com.google.appengine.tck.benchmark.support.BenchmarkInvokerClient;
+import com.google.appengine.tck.benchmark.support.BenchmarkInvokerServlet;
+import com.google.appengine.tck.benchmark.support.BenchmarkResultsClient;
+import com.google.appengine.tck.benchmark.support.BenchmarkResultsServlet;
+import com.google.appengine.tck.env.Environment;
+import com.google.appengine.tck.lib.LibUtils;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.InSequence;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Test;
+
+/**
+ * Base class for in-container benchmarks.
+ * <p/>
+ * Iterations are configured with tck.properties / system properties:
+ * benchmark.warmup.iterations, benchmark.measurement.iterations, benchmark.iteration.time (millis) and benchmark.threads.
+ * A positive benchmark.rate (invocations per second) runs every benchmark open-loop over those threads, see OpenLoopRunner.
+ * <p/>
+ * In-container benchmarks are driven by the client: a @RunAsClient test walks the sweep and runs every point
+ * as its own request with invoke(), so no request has to fit more than one benchmark into its deadline.
+ * Their results are stored in-container and collected by the client once all benchmarks of the test class ran,
+ * they are written as JSON into benchmark.results.dir/[environment], or logged if not set.
+ * Client side (@RunAsClient) benchmarks write their results right away.
+ * The first result of a run cleans its environment's directory, so it only holds this run's results.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public abstract class BenchmarkTestBase extends TestBase {
+    protected static final String RESULTS_DIR = "benchmark.results.dir";
+
+    // client side, keys of the in-container results to collect per test class
+    private static final Map<Class<?>, List<String>> RESULT_KEYS = new HashMap<>();
+
+    // client side, environments whose results directory this run already cleaned
+    private static final Set<Environment> CLEANED = new HashSet<>();
+
+    protected static WebArchive getBenchmarkDeployment() {
+        return getBenchmarkDeployment(new TestContext().setWebXmlFile("web-benchmark.xml"));
+    }
+
+    /**
+     * Custom web.xml must map BenchmarkResultsServlet to /benchmark/results and BenchmarkInvokerServlet to /benchmark/invoke.
+     */
+    protected static WebArchive getBenchmarkDeployment(TestContext context) {
+        context.setUseSystemProperties(true).setCompatibilityProperties(TCK_PROPERTIES);
+        WebArchive war = getTckDeployment(context);
+        war.addClass(BenchmarkTestBase.class);
+        war.addClasses(BenchmarkResultsServlet.class, BenchmarkInvokerServlet.class);
+        war.addPackage(BenchmarkRunner.class.getPackage());
+        LibUtils libUtils = new LibUtils();
+        libUtils.addLibrary(war, "org.hdrhistogram", "HdrHistogram");
+        libUtils.addLibrary(war, "org.json", "json");
+        return war;
+    }
+
+    /**
+     * Comma separated list of ints, e.g. batch sizes to sweep.
+     */
+    protected static int[] getIntValues(String key, String defaultValue) {
+        String[] split = getBenchmarkProperty(key, defaultValue).split(",");
+        int[] values = new int[split.length];
+        for (int i = 0; i < split.length; i++) {
+            values[i] = Integer.parseInt(split[i].trim());
+        }
+        return values;
+    }
+
+    /**
+     * Comma separated list of doubles, e.g. distribution skews to sweep.
+     */
+    protected static double[] getDoubleValues(String key, String defaultValue) {
+        String[] split = getBenchmarkProperty(key, defaultValue).split(",");
+        double[] values = new double[split.length];
+        for (int i = 0; i < split.length; i++) {
+            values[i] = Double.parseDouble(split[i].trim());
+        }
+        return values;
+    }
+
+    /**
+     * Benchmark property, also on the client side (@RunAsClient), which has no tck.properties.
+     */
+    protected static String getBenchmarkProperty(String key, String defaultValue) {
+        if (BenchmarkTestBase.class.getClassLoader().getResource(TCK_PROPERTIES) == null) {
+            // tck.properties are the system properties anyway
+            return System.getProperty(key, defaultValue);
+        }
+        return getTestSystemProperty(key, defaultValue);
+    }
+
+    protected static Map<String, String> params(Object... keyValues) {
+        if (keyValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Params must be key-value pairs: " + keyValues.length);
+        }
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            params.put(String.valueOf(keyValues[i]), String.valueOf(keyValues[i + 1]));
+        }
+        return params;
+    }
+
+    protected BenchmarkOptions getBenchmarkOptions() {
+        BenchmarkOptions options = new BenchmarkOptions();
+        options.setWarmupIterations(Integer.parseInt(getBenchmarkProperty("benchmark.warmup.iterations", "3")));
+        options.setMeasurementIterations(Integer.parseInt(getBenchmarkProperty("benchmark.measurement.iterations", "5")));
+        options.setIterationTime(Long.parseLong(getBenchmarkProperty("benchmark.iteration.time", "1000")));
+        options.setThreads(Integer.parseInt(getBenchmarkProperty("benchmark.threads", "1")));
+        options.setRate(Double.parseDouble(getBenchmarkProperty("benchmark.rate", "0")));
+        if (isInContainer()) {
+            // plain threads are not allowed in GAE
+            options.setThreadFactory(ThreadManager.currentRequestThreadFactory());
+        }
+        return options;
+    }
+
+    protected BenchmarkResult benchmark(String name, BenchmarkOperation operation) throws Exception {
+        return benchmark(name, Collections.<String, String>emptyMap(), getBenchmarkOptions(), operation);
+    }
+
+    protected BenchmarkResult benchmark(String name, Map<String, String> params, BenchmarkOptions options, BenchmarkOperation operation) throws Exception {
+        return report(measure(name, params, options, operation));
+    }
+
+    /**
+     * Runs the benchmark without reporting it, so additional metrics can be added to the result first.
+     */
+    protected BenchmarkResult measure(String name, Map<String, String> params, BenchmarkOptions options, BenchmarkOperation operation) throws Exception {
+        if (options.getRate() > 0 && params.containsKey("rate") == false) {
+            // open-loop results must not be compared to closed-loop ones
+            params = new LinkedHashMap<>(params);
+            params.put("rate", formatRate(options.getRate()));
+        }
+        log.info(String.format(">>>> Benchmark %s %s", name, params));
+        return createRunner(options).run(name, params, operation);
+    }
+
+    /**
+     * Runs just the warmup iterations, so the operation's own counters can be reset before measuring.
+     *
+     * @return the options without warmup, to measure with
+     */
+    protected BenchmarkOptions warmUp(String name, Map<String, String> params, BenchmarkOptions options, BenchmarkOperation operation) throws Exception {
+        if (options.getWarmupIterations() > 0) {
+            log.info(String.format(">>>> Warmup %s %s", name, params));
+            createRunner(options.copy().setMeasurementIterations(options.getWarmupIterations()).setWarmupIterations(0)).run(name, params, operation);
+        }
+        return options.copy().setWarmupIterations(0);
+    }
+
+    /**
+     * Reports a result which was measured outside of the runner, e.g. end-to-end latency of an async pipeline.
+     */
+    protected BenchmarkResult report(BenchmarkResult result) throws IOException {
+        result.setEnvironment(getEnvironment().name());
+        log.info(String.format(">>>> %s", result));
+        if (isInContainer()) {
+            BenchmarkResultsServlet.store(result.toJSON());
+        } else {
+            // client side benchmark, e.g. HTTP uploads
+            getReporter(getEnvironment()).write(result.toJSON());
+        }
+        return result;
+    }
+
+    /**
+     * Runs the given method of this test class in-container, as a request of its own, see BenchmarkInvokerServlet.
+     *
+     * @return string form of the method's return value, null for void
+     */
+    protected String invoke(URL url, String method, Object... args) throws Exception {
+        log.info(String.format(">>>> Invoking %s%s", method, Arrays.toString(args)));
+        BenchmarkInvokerClient.Invocation invocation = BenchmarkInvokerClient.invoke(url, getClass(), method, args);
+        synchronized (RESULT_KEYS) {
+            List<String> keys = RESULT_KEYS.get(getClass());
+            if (keys == null) {
+                keys = new ArrayList<>();
+                RESULT_KEYS.put(getClass(), keys);
+            }
+            keys.addAll(invocation.getKeys());
+        }
+        return invocation.getValue();
+    }
+
+    /**
+     * Open-loop runner if the options have a target rate, e.g. benchmark.rate.
+     */
+    protected static BenchmarkRunner createRunner(BenchmarkOptions options) {
+        return (options.getRate() > 0) ? new OpenLoopRunner(options) : new BenchmarkRunner(options);
+    }
+
+    private static String formatRate(double rate) {
+        return (rate == Math.rint(rate)) ? String.valueOf((long) rate) : String.valueOf(rate);
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(Integer.MAX_VALUE)
+    public void collectBenchmarkResults(@ArquillianResource URL url) throws Exception {
+        List<String> keys;
+        synchronized (RESULT_KEYS) {
+            keys = RESULT_KEYS.remove(getClass());
+        }
+        if (keys != null) {
+            BenchmarkResultsClient.collect(url, keys, getReporter(getEnvironment()));
+        }
+    }
+
+    /**
+     * Results of the environment, benchmark.results.dir/[environment].
+     *
+     * @return the directory, or null if benchmark.results.dir is not set
+     */
+    static File getResultsDirectory(Environment environment) {
+        String dir = System.getProperty(RESULTS_DIR);
+        return (dir != null) ? new File(dir, environment.name()) : null;
+    }
+
+    private static BenchmarkReporter getReporter(Environment environment) throws IOException {
+        BenchmarkReporter reporter = new BenchmarkReporter(getResultsDirectory(environment));
+        synchronized (CLEANED) {
+            if (CLEANED.add(environment)) {
+                reporter.clean();
+            }
+        }
+        return reporter;
+    }
+}
@@ -15,15 +15,17 @@
 
 package com.google.appengine.tck.benchmark;
 
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 
-import com.google.appengine.tck.base.TestBase;
-import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
 import com.google.appengine.tck.benchmark.support.Data;
 import com.google.appengine.tck.benchmark.support.Root;
 import com.google.appengine.tck.lib.LibUtils;
@@ -31,7 +33,9 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.VoidWork;
 import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
 import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
 import org.jboss.shrinkwrap.api.spec.WebArchive;
 import org.junit.After;
 import org.junit.Assert;
@@ -44,13 +48,12 @@ import org.junit.runner.RunWith;
  * @author Terry Okamoto
  */
 @RunWith(Arquillian.class)
-public class ObjectifyBenchmarkTest extends TestBase {
+public class ObjectifyBenchmarkTest extends BenchmarkTestBase {
     private static final Random RANDOM = new Random();
 
     @Deployment
     public static WebArchive getDeployment() {
-        TestContext context = new TestContext().setUseSystemProperties(true).setCompatibilityProperties(TCK_PROPERTIES);
-        WebArchive war = getTckDeployment(context);
+        WebArchive war = getBenchmarkDeployment();
         war.addPackage(Data.class.getPackage());
         LibUtils libUtils = new LibUtils();
         libUtils.addLibrary(war, "com.googlecode.objectify", "objectify");
@@ -70,24 +73,37 @@ public class ObjectifyBenchmarkTest extends TestBase {
     }
 
     @Test
-    public void testInserts() throws Exception {
-        final int N = Integer.parseInt(getTestSystemProperty("benchmark.datastore.size", "6000"));
+    @RunAsClient
+    public void testInserts(@ArquillianResource URL url) throws Exception {
+        // wrap inserts in same Tx -- as expected
+        invoke(url, "benchmarkInserts", true);
+        // do it w/o Tx
+        invoke(url, "benchmarkInserts", false);
+    }
+
+    protected void benchmarkInserts(final boolean tx) throws Exception {
+        final int N = Integer.parseInt(getBenchmarkProperty("benchmark.datastore.size", "6000"));
         log.info(String.format(">>>> N = %s", N));
 
         final Key<Root> parent = getRootKey();
 
-        // wrap inserts in same Tx -- as expected
-        long txStart = System.currentTimeMillis();
-        ObjectifyService.ofy().transact(new VoidWork() {
-            public void vrun() {
-                doInsert(generateData(N, parent));
+        // every invocation saves N entities, so a few invocations per iteration are enough
+        BenchmarkOptions options = getBenchmarkOptions().setInvocations(1).setOperationsPerInvocation(N);
+        Map<String, String> params = Collections.singletonMap("size", String.valueOf(N));
+
+        benchmark(tx ? "objectify.insert.tx" : "objectify.insert", params, options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                if (tx) {
+                    ObjectifyService.ofy().transact(new VoidWork() {
+                        public void vrun() {
+                            doInsert(generateData(N, parent));
+                        }
+                    });
+                } else {
+                    doInsert(generateData(N, parent));
+                }
             }
         });
-        long txEnd = System.currentTimeMillis();
-        logDuration("Full Tx ", txStart, txEnd);
-
-        // do it w/o Tx
-        doInsert(generateData(N, parent));
     }
 
     protected Key<Root> getRootKey() {
@@ -119,17 +135,7 @@ public class ObjectifyBenchmarkTest extends TestBase {
     }
 
     protected void doInsert(List<Data> list) {
-        long start = System.currentTimeMillis();
         Map<Key<Data>, Data> saved = ObjectifyService.ofy().save().entities(list).now();
-        long end = System.currentTimeMillis();
-
-        logDuration(String.format("Save [%d]", saved.size()), start, end);
-
         Assert.assertEquals(list.size(), saved.size());
     }
-
-    protected void logDuration(String msg, long start, long end) {
-        long totalMillis = (end - start);
-        log.info(String.format(">>>> %s time: %sms", msg, totalMillis));
-    }
 }
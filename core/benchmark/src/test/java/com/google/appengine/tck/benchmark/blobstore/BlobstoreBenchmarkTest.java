@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.blobstore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Random;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.support.BlobServeServlet;
+import com.google.appengine.tck.benchmark.support.BlobstoreClient;
+import com.google.appengine.tck.benchmark.support.UploadHandlerServlet;
+import com.google.appengine.tck.benchmark.support.UploadUrlServerServlet;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.junit.InSequence;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Blobstore upload, serve and BlobstoreInputStream throughput.
+ * <p/>
+ * One operation is one MB, so throughput is in MB/s.
+ * Uploads stream files of benchmark.blobstore.sizes MB (e.g. 1,64,1024) from disk, with parallel clients;
+ * serve downloads whole blobs and byte ranges of benchmark.blobstore.range.sizes MB via BlobstoreService.serve.
+ * Both run on the client, reading blobs with BlobstoreInputStream runs in-container, across buffer sizes.
+ * All uploaded blobs are deleted at the end.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class BlobstoreBenchmarkTest extends BenchmarkTestBase {
+    private static final int MB = 1024 * 1024;
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment(new TestContext().setWebXmlFile("web-blobstore-benchmark.xml"));
+        war.addClasses(UploadUrlServerServlet.class, UploadHandlerServlet.class, BlobServeServlet.class);
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(10)
+    public void testUpload(@ArquillianResource URL url) throws Exception {
+        for (int size : getSizes()) {
+            File file = createFile(size);
+            try {
+                for (int threads : getThreads()) {
+                    benchmarkUpload(url, file, size, threads);
+                }
+            } finally {
+                delete(file);
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(20)
+    public void testServe(@ArquillianResource URL url) throws Exception {
+        for (int size : getSizes()) {
+            File file = createFile(size);
+            String blobKey;
+            try (BlobstoreClient client = new BlobstoreClient(url, 1)) {
+                blobKey = client.upload(file);
+            } finally {
+                delete(file);
+            }
+            for (int threads : getThreads()) {
+                benchmarkServe(url, blobKey, size, 0, threads);
+                for (int range : getIntValues("benchmark.blobstore.range.sizes", "1")) {
+                    if (range < size) {
+                        benchmarkServe(url, blobKey, size, range, threads);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(30)
+    public void testBlobstoreInputStream(@ArquillianResource URL url) throws Exception {
+        for (int size : getSizes()) {
+            for (int bufferSize : getIntValues("benchmark.blobstore.buffer.sizes", "1024,65536,1048576")) {
+                invoke(url, "benchmarkRead", size, bufferSize);
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(40)
+    public void testDeleteBlobs(@ArquillianResource URL url) throws Exception {
+        log.info(String.format(">>>> Deleted %s benchmark blobs", invoke(url, "deleteBlobs")));
+    }
+
+    protected void benchmarkUpload(URL url, final File file, int size, int threads) throws Exception {
+        try (final BlobstoreClient client = new BlobstoreClient(url, threads)) {
+            BenchmarkOptions options = getBenchmarkOptions().setThreads(threads).setOperationsPerInvocation(size);
+            benchmark("blobstore.upload", params("size", size, "threads", threads), options, new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    String blobKey = client.upload(file);
+                    Assert.assertFalse(blobKey.isEmpty());
+                }
+            });
+        }
+    }
+
+    /**
+     * Range 0 serves the whole blob.
+     */
+    protected void benchmarkServe(URL url, final String blobKey, int size, int range, int threads) throws Exception {
+        int megabytes = (range > 0) ? range : size;
+        final long expected = (long) megabytes * MB;
+        final String header = (range > 0) ? "bytes=0-" + (expected - 1) : null;
+        try (final BlobstoreClient client = new BlobstoreClient(url, threads)) {
+            BenchmarkOptions options = getBenchmarkOptions().setThreads(threads).setOperationsPerInvocation(megabytes);
+            benchmark("blobstore.serve", params("size", size, "range", range, "threads", threads), options, new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    Assert.assertEquals(expected, client.download(blobKey, header));
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the blob of the given size uploaded by testUpload.
+     */
+    protected void benchmarkRead(final int size, int bufferSize) throws Exception {
+        final BlobKey blobKey = UploadHandlerServlet.findBlob((long) size * MB);
+        Assert.assertNotNull("No uploaded blob of " + size + "MB", blobKey);
+        final byte[] buffer = new byte[bufferSize];
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(size);
+        benchmark("blobstore.read", params("size", size, "bufferSize", bufferSize), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                long total = 0;
+                try (InputStream is = new BlobstoreInputStream(blobKey)) {
+                    int r;
+                    while ((r = is.read(buffer)) != -1) {
+                        total += r;
+                    }
+                }
+                Assert.assertEquals((long) size * MB, total);
+            }
+        });
+    }
+
+    protected int deleteBlobs() {
+        return UploadHandlerServlet.deleteBlobs();
+    }
+
+    /**
+     * Random content, so nothing on the way can compress it.
+     */
+    protected static File createFile(int size) throws IOException {
+        File file = File.createTempFile("blobstore-benchmark-" + size + "MB-", ".bin");
+        Random random = new Random();
+        byte[] chunk = new byte[MB];
+        try (OutputStream os = new FileOutputStream(file)) {
+            for (int i = 0; i < size; i++) {
+                random.nextBytes(chunk);
+                os.write(chunk);
+            }
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        if (file.delete() == false) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static int[] getSizes() {
+        return getIntValues("benchmark.blobstore.sizes", "1,16,64");
+    }
+
+    private static int[] getThreads() {
+        return getIntValues("benchmark.blobstore.threads", "1,4");
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.channel;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.support.ChannelClient;
+import com.google.appengine.tck.benchmark.support.ChannelFanOutServlet;
+import com.google.appengine.tck.env.Environment;
+import org.HdrHistogram.Histogram;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Channel API fan-out, delivery throughput and end-to-end latency of ChannelService.sendMessage broadcasts
+ * to benchmark.channel.counts channels.
+ * <p/>
+ * The channels are received by a headless client, which connects and polls them through the dev server's
+ * channel protocol, so this runs on the SDK only, no browsers needed.
+ * benchmark.channel.pollers threads poll their share of the channels round robin,
+ * sleeping benchmark.channel.poll.interval ms after a pass without messages, just like the JavaScript client polls.
+ * <p/>
+ * Every iteration broadcasts one message of benchmark.channel.message.size chars and waits for all channels to
+ * receive it; latency is from the broadcast request to the delivery, throughput is deliveries per second
+ * until the last one. The time spent in sendMessage for the whole broadcast is reported as send.ms.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class ChannelFanOutBenchmarkTest extends BenchmarkTestBase {
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment(new TestContext().setWebXmlFile("web-channel-benchmark.xml"));
+        war.addClass(ChannelFanOutServlet.class);
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testFanOut(@ArquillianResource URL url) throws Exception {
+        assumeEnvironment(Environment.SDK);
+        for (int channels : getIntValues("benchmark.channel.counts", "100,1000")) {
+            for (int pollers : getIntValues("benchmark.channel.pollers", "16")) {
+                benchmarkFanOut(url, channels, pollers);
+            }
+        }
+    }
+
+    protected void benchmarkFanOut(URL url, int channels, int pollers) throws Exception {
+        long timeout = Long.parseLong(getBenchmarkProperty("benchmark.channel.timeout", "120000"));
+        long pollInterval = Long.parseLong(getBenchmarkProperty("benchmark.channel.poll.interval", "10"));
+        char[] padding = new char[Integer.parseInt(getBenchmarkProperty("benchmark.channel.message.size", "100"))];
+        Arrays.fill(padding, 'x');
+
+        String prefix = "fanout-" + System.nanoTime() + "-";
+        BenchmarkOptions options = getBenchmarkOptions().setInvocations(1).setOperationsPerInvocation(channels);
+        log.info(String.format(">>>> Benchmark channel.fanout %s", params("channels", channels, "pollers", pollers)));
+
+        try (ChannelClient client = new ChannelClient(url, pollers + 1)) {
+            List<Subscriber> subscribers = new ArrayList<>(channels);
+            for (String token : client.createChannels(prefix, channels)) {
+                subscribers.add(new Subscriber(token, client.connect(token)));
+            }
+            if (subscribers.size() != channels) {
+                throw new IllegalStateException(String.format("Created %s of %s channels", subscribers.size(), channels));
+            }
+
+            Delivery delivery = new Delivery();
+            ExecutorService executor = Executors.newFixedThreadPool(pollers);
+            try {
+                for (int i = 0; i < pollers; i++) {
+                    List<Subscriber> share = new ArrayList<>();
+                    for (int j = i; j < channels; j += pollers) {
+                        share.add(subscribers.get(j));
+                    }
+                    executor.execute(new Poller(client, share, delivery, pollInterval));
+                }
+
+                int seq = 0;
+                for (int i = 0; i < options.getWarmupIterations(); i++) {
+                    delivery.broadcast(client, prefix, channels, ++seq, padding, timeout, new Histogram(3));
+                }
+
+                Histogram latency = new Histogram(3);
+                double[] throughput = new double[options.getMeasurementIterations()];
+                long send = 0;
+                for (int i = 0; i < throughput.length; i++) {
+                    Round round = delivery.broadcast(client, prefix, channels, ++seq, padding, timeout, latency);
+                    throughput[i] = channels * 1e9 / Math.max(1, round.last.get() - round.start);
+                    send += round.send;
+                }
+
+                BenchmarkResult result = new BenchmarkResult("channel.fanout", params("channels", channels, "pollers", pollers), options, throughput, latency, (long) channels * throughput.length);
+                report(result.addMetric("send.ms", TimeUnit.NANOSECONDS.toMillis(send) / (double) throughput.length));
+            } finally {
+                delivery.stop();
+                executor.shutdownNow();
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            }
+
+            for (Subscriber subscriber : subscribers) {
+                client.disconnect(subscriber.token, subscriber.clientId);
+            }
+        }
+    }
+
+    private static class Subscriber {
+        private final String token;
+        private final String clientId;
+
+        private Subscriber(String token, String clientId) {
+            this.token = token;
+            this.clientId = clientId;
+        }
+    }
+
+    /**
+     * One broadcast, received messages of older rounds are ignored.
+     */
+    private static class Round {
+        private final int seq;
+        private final Histogram latency;
+        private final CountDownLatch received;
+        private final AtomicLong last = new AtomicLong();
+        private long start;
+        private long send;
+
+        private Round(int seq, int channels, Histogram latency) {
+            this.seq = seq;
+            this.latency = latency;
+            this.received = new CountDownLatch(channels);
+        }
+
+        private void deliver(long now) {
+            synchronized (latency) {
+                latency.recordValue(Math.max(0, now - start));
+            }
+            long current = last.get();
+            while (now > current && last.compareAndSet(current, now) == false) {
+                current = last.get();
+            }
+            received.countDown();
+        }
+    }
+
+    private static class Delivery {
+        private volatile Round round;
+        private volatile boolean running = true;
+
+        private Round broadcast(ChannelClient client, String prefix, int channels, int seq, char[] padding, long timeout, Histogram latency) throws Exception {
+            Round current = new Round(seq, channels, latency);
+            current.start = System.nanoTime();
+            round = current;
+            current.send = client.broadcast(prefix, channels, seq + ":" + new String(padding));
+            if (current.received.await(timeout, TimeUnit.MILLISECONDS) == false) {
+                throw new IllegalStateException(String.format("Only %s of %s channels received broadcast %s in %s ms",
+                    channels - current.received.getCount(), channels, seq, timeout));
+            }
+            return current;
+        }
+
+        private void received(String message) {
+            long now = System.nanoTime();
+            int seq = Integer.parseInt(message.substring(0, message.indexOf(':')));
+            Round current = round;
+            if (current != null && current.seq == seq) {
+                current.deliver(now);
+            }
+        }
+
+        private void stop() {
+            running = false;
+        }
+    }
+
+    private class Poller implements Runnable {
+        private final ChannelClient client;
+        private final List<Subscriber> subscribers;
+        private final Delivery delivery;
+        private final long pollInterval;
+
+        private Poller(ChannelClient client, List<Subscriber> subscribers, Delivery delivery, long pollInterval) {
+            this.client = client;
+            this.subscribers = subscribers;
+            this.delivery = delivery;
+            this.pollInterval = pollInterval;
+        }
+
+        public void run() {
+            try {
+                while (delivery.running) {
+                    boolean idle = true;
+                    for (Subscriber subscriber : subscribers) {
+                        String message;
+                        while ((message = client.poll(subscriber.token, subscriber.clientId)) != null) {
+                            delivery.received(message);
+                            idle = false;
+                        }
+                    }
+                    if (idle) {
+                        Thread.sleep(pollInterval);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                if (delivery.running) {
+                    log.log(WARNING, "Channel poller failed", e);
+                }
+            }
+        }
+    }
+}
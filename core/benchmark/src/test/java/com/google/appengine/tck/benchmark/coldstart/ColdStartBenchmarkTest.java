@@ -0,0 +1,293 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.coldstart;
+
+import java.io.StringReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.harness.Statistics;
+import com.google.appengine.tck.benchmark.support.ColdStartFilter;
+import com.google.appengine.tck.benchmark.support.ColdStartServlet;
+import com.google.appengine.tck.env.Environment;
+import com.google.appengine.tck.lib.LibUtils;
+import org.HdrHistogram.Histogram;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.jboss.arquillian.container.test.api.Deployer;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.OperateOnDeployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.junit.InSequence;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.ArchivePath;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Loading request latency, time to first byte of the first user request to a freshly deployed app.
+ * <p/>
+ * Every app size is deployed with and without warmup requests, benchmark.coldstart.repeats times each;
+ * the size is the number of extra libraries added with LibUtils, all of whose classes are loaded in ColdStartServlet's init.
+ * Each deploy starts a new instance, e.g. a new dev server on the SDK, the first request is sent after
+ * benchmark.coldstart.idle millis (1000), so a warmup request can finish first, then a second one for comparison.
+ * The dev server does not send warmup requests, so on the SDK the client sends one right after the deploy,
+ * as production would for a new instance (benchmark.coldstart.send.warmup).
+ * <p/>
+ * Throughput is first requests per second; the metrics break the first request down into classloading,
+ * servlet init and the first datastore call, as seen by the instance, plus the deploy time and how often a warmup request ran.
+ * If a warmup request initialized the instance, classloading and init are reported as warmup.classloading.ms and warmup.init.ms,
+ * since the first request did not pay them.
+ * All deployments use the same application and version, so they share the URL.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class ColdStartBenchmarkTest extends BenchmarkTestBase {
+    private static final String[] LIBRARIES = {
+        "com.google.guava:guava",
+        "com.googlecode.objectify:objectify",
+        "com.google.appengine.tools:appengine-gcs-client",
+        "com.google.appengine.tools:appengine-pipeline",
+        "com.google.appengine.tools:appengine-mapreduce",
+        "com.google.appengine:appengine-endpoints",
+        "com.h2database:h2"
+    };
+    private static final String[] INIT = {"classloading.ms", "init.ms"};
+    private static final double MS = 1000000.0;
+
+    protected enum AppSize {
+        SMALL(0),
+        MEDIUM(2),
+        LARGE(LIBRARIES.length);
+
+        private final int libraries;
+
+        AppSize(int libraries) {
+            this.libraries = libraries;
+        }
+    }
+
+    @ArquillianResource
+    private Deployer deployer;
+
+    @Deployment(name = "coldstart-small", managed = false)
+    public static WebArchive getSmallDeployment() {
+        return getColdStartDeployment(AppSize.SMALL, false);
+    }
+
+    @Deployment(name = "coldstart-small-warmup", managed = false)
+    public static WebArchive getSmallWarmupDeployment() {
+        return getColdStartDeployment(AppSize.SMALL, true);
+    }
+
+    @Deployment(name = "coldstart-medium", managed = false)
+    public static WebArchive getMediumDeployment() {
+        return getColdStartDeployment(AppSize.MEDIUM, false);
+    }
+
+    @Deployment(name = "coldstart-medium-warmup", managed = false)
+    public static WebArchive getMediumWarmupDeployment() {
+        return getColdStartDeployment(AppSize.MEDIUM, true);
+    }
+
+    @Deployment(name = "coldstart-large", managed = false)
+    public static WebArchive getLargeDeployment() {
+        return getColdStartDeployment(AppSize.LARGE, false);
+    }
+
+    @Deployment(name = "coldstart-large-warmup", managed = false)
+    public static WebArchive getLargeWarmupDeployment() {
+        return getColdStartDeployment(AppSize.LARGE, true);
+    }
+
+    protected static WebArchive getColdStartDeployment(AppSize size, boolean warmup) {
+        System.setProperty("appengine.warmup.enabled", Boolean.toString(warmup));
+        try {
+            TestContext context = new TestContext().setWebXmlFile("web-coldstart-benchmark.xml");
+            context.setAppEngineWebXmlFile("appengine-web-coldstart-benchmark.xml");
+            WebArchive war = getBenchmarkDeployment(context);
+            war.addClass(ColdStartServlet.class);
+            war.addClass(ColdStartFilter.class);
+            Set<ArchivePath> before = new HashSet<>(war.getContent().keySet());
+            LibUtils libUtils = new LibUtils();
+            for (int i = 0; i < size.libraries; i++) {
+                libUtils.addLibrary(war, LIBRARIES[i]);
+            }
+            // only the added libraries count towards the app size, not the TCK's own
+            StringBuilder jars = new StringBuilder();
+            for (ArchivePath path : war.getContent().keySet()) {
+                if (before.contains(path) == false && path.get().endsWith(".jar")) {
+                    jars.append(path.get().substring(path.get().lastIndexOf('/') + 1)).append('\n');
+                }
+            }
+            war.addAsResource(new StringAsset(jars.toString()), ColdStartServlet.LIBRARIES);
+            return war;
+        } finally {
+            System.clearProperty("appengine.warmup.enabled");
+        }
+    }
+
+    private static String getName(AppSize size, boolean warmup) {
+        return "coldstart-" + size.name().toLowerCase() + (warmup ? "-warmup" : "");
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(10)
+    public void deployFirst() throws Exception {
+        deployer.deploy(getName(AppSize.SMALL, false));
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(20)
+    public void testColdStart(@ArquillianResource @OperateOnDeployment("coldstart-small") URL url) throws Exception {
+        int repeats = Integer.parseInt(getBenchmarkProperty("benchmark.coldstart.repeats", "5"));
+        long idle = Long.parseLong(getBenchmarkProperty("benchmark.coldstart.idle", "1000"));
+        // the dev server does not send warmup requests
+        boolean sendWarmup = Boolean.parseBoolean(getBenchmarkProperty("benchmark.coldstart.send.warmup", String.valueOf(getEnvironment() == Environment.SDK)));
+        // deployFirst's deployment only resolves the url, every repeat deploys and times its own
+        deployer.undeploy(getName(AppSize.SMALL, false));
+        for (AppSize size : AppSize.values()) {
+            for (boolean warmup : new boolean[]{false, true}) {
+                benchmarkColdStart(url, size, warmup, warmup && sendWarmup, repeats, idle);
+            }
+        }
+        // for collecting the results, the container undeploys it at the end
+        deployer.deploy(getName(AppSize.SMALL, false));
+    }
+
+    /**
+     * Only the unmanaged deployments exist, so this needs to name one.
+     */
+    @Override
+    @Test
+    @RunAsClient
+    @InSequence(Integer.MAX_VALUE)
+    public void collectBenchmarkResults(@ArquillianResource @OperateOnDeployment("coldstart-small") URL url) throws Exception {
+        super.collectBenchmarkResults(url);
+    }
+
+    protected void benchmarkColdStart(URL url, AppSize size, boolean warmup, boolean sendWarmup, int repeats, long idle) throws Exception {
+        String name = getName(size, warmup);
+        URL target = new URL(url, "benchmark/coldstart");
+        URL warmupUrl = new URL(url, ColdStartServlet.WARMUP_PATH.substring(1));
+        Histogram latency = new Histogram(3);
+        double[] throughput = new double[repeats];
+        double[] deploys = new double[repeats];
+        double[] warm = new double[repeats];
+        Map<String, List<Double>> breakdown = new LinkedHashMap<>();
+        int warmedUp = 0;
+        int classes = 0;
+
+        for (int i = 0; i < repeats; i++) {
+            long start = System.nanoTime();
+            deployer.deploy(name);
+            deploys[i] = (System.nanoTime() - start) / MS;
+            try {
+                try (CloseableHttpClient client = HttpClients.createDefault()) {
+                    if (sendWarmup) {
+                        HttpResponse response = client.execute(new HttpGet(warmupUrl.toURI()));
+                        EntityUtils.consume(response.getEntity());
+                        Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+                    }
+                    Thread.sleep(idle);
+                    long[] ttfb = new long[1];
+                    Properties first = get(client, target, ttfb);
+                    Assert.assertEquals("Not the instance's first request", "true", first.getProperty("first"));
+                    latency.recordValue(ttfb[0]);
+                    throughput[i] = 1e9 / ttfb[0];
+                    // init is the warmup request's if one came first, the first request only paid the rest
+                    boolean warmedUpInstance = Boolean.parseBoolean(first.getProperty("warmup"));
+                    for (String metric : INIT) {
+                        add(breakdown, (warmedUpInstance ? "warmup." : "") + metric, first.getProperty(metric));
+                    }
+                    add(breakdown, "api.ms", first.getProperty("api.ms"));
+                    if (warmedUpInstance) {
+                        warmedUp++;
+                    }
+                    classes = Integer.parseInt(first.getProperty("classes"));
+
+                    get(client, target, ttfb);
+                    warm[i] = ttfb[0] / MS;
+                }
+            } finally {
+                deployer.undeploy(name);
+            }
+        }
+
+        BenchmarkOptions options = getBenchmarkOptions().setWarmupIterations(0).setMeasurementIterations(repeats).setInvocations(1).setThreads(1);
+        Map<String, String> params = params("size", size, "libraries", size.libraries, "warmup", warmup);
+        BenchmarkResult result = new BenchmarkResult("coldstart", params, options, throughput, latency, repeats);
+        result.addMetric("ttfb.ms", latency.getMean() / MS);
+        result.addMetric("warm.ttfb.ms", new Statistics(warm).getMean());
+        result.addMetric("deploy.ms", new Statistics(deploys).getMean());
+        for (Map.Entry<String, List<Double>> entry : breakdown.entrySet()) {
+            result.addMetric(entry.getKey(), mean(entry.getValue()));
+        }
+        result.addMetric("classes", classes);
+        report(result.addMetric("warmup.ratio", (double) warmedUp / repeats));
+    }
+
+    private static void add(Map<String, List<Double>> breakdown, String metric, String value) {
+        List<Double> values = breakdown.get(metric);
+        if (values == null) {
+            values = new ArrayList<>();
+            breakdown.put(metric, values);
+        }
+        values.add(Double.parseDouble(value));
+    }
+
+    private static double mean(List<Double> values) {
+        double[] samples = new double[values.size()];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = values.get(i);
+        }
+        return new Statistics(samples).getMean();
+    }
+
+    /**
+     * Time to first byte is until the response headers arrived.
+     */
+    private static Properties get(CloseableHttpClient client, URL url, long[] ttfb) throws Exception {
+        long start = System.nanoTime();
+        HttpResponse response = client.execute(new HttpGet(url.toURI()));
+        ttfb[0] = System.nanoTime() - start;
+        String body = EntityUtils.toString(response.getEntity());
+        Assert.assertEquals(body, 200, response.getStatusLine().getStatusCode());
+        Properties properties = new Properties();
+        properties.load(new StringReader(body));
+        return properties;
+    }
+}
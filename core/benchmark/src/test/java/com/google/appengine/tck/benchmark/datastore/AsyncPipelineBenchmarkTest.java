@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.datastore;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import org.HdrHistogram.Histogram;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * AsyncDatastoreService get, put and query futures pipelined from a single request thread.
+ * <p/>
+ * An invocation issues benchmark.datastore.pipeline.operations single-entity calls, keeping up to depth
+ * (benchmark.datastore.pipeline.depths, 1 to 256) futures in flight and waiting on the oldest one when the window is full;
+ * depth 1 is the synchronous baseline.
+ * Speedup is throughput over depth 1 and efficiency is speedup over depth, so the depth where efficiency falls off
+ * is where the backend starts serializing the calls.
+ * Issue latency is the time spent in the async call itself and wait latency the time blocked in Future.get,
+ * a backend which does the work on issue shows issue latency close to depth 1 latency at every depth.
+ * Queries are filtered on an indexed property, asList with a prefetch of the whole limit, waited on by the size of the list.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class AsyncPipelineBenchmarkTest extends BenchmarkTestBase {
+    private static final String KIND = "AsyncPipelineBenchmark";
+    private static final String PUT_KIND = "AsyncPipelineBenchmarkPut";
+    private static final String BUCKET = "bucket";
+    private static final String VALUE = "value";
+    private static final int BUCKETS = 100;
+    private static final int QUERY_LIMIT = 10;
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final double MICROS = 1e3;
+
+    private DatastoreService service;
+    private AsyncDatastoreService asyncService;
+    private List<Key> keys;
+
+    protected enum Op {
+        GET,
+        PUT,
+        QUERY
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        return getBenchmarkDeployment();
+    }
+
+    @Before
+    public void setUp() {
+        service = DatastoreServiceFactory.getDatastoreService();
+        asyncService = DatastoreServiceFactory.getAsyncDatastoreService();
+    }
+
+    @Test
+    @RunAsClient
+    public void testPipelining(@ArquillianResource URL url) throws Exception {
+        int count = Integer.parseInt(getBenchmarkProperty("benchmark.datastore.pipeline.entities", "1000"));
+        invoke(url, "createEntities", count);
+        try {
+            int operations = Integer.parseInt(getBenchmarkProperty("benchmark.datastore.pipeline.operations", "256"));
+            for (Op op : Op.values()) {
+                double baseline = 0;
+                for (int depth : getIntValues("benchmark.datastore.pipeline.depths", "1,2,4,8,16,32,64,128,256")) {
+                    double score = Double.parseDouble(invoke(url, "benchmarkPipeline", op, depth, operations, count, baseline));
+                    if (baseline == 0) {
+                        baseline = score / depth;
+                    }
+                }
+            }
+        } finally {
+            invoke(url, "deleteEntities");
+        }
+    }
+
+    protected void createEntities(int count) {
+        List<Entity> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        for (int i = 0; i < count; i++) {
+            batch.add(createEntity(new Entity(createKey(i)), i));
+            if (batch.size() == MAX_BATCH_SIZE || i == count - 1) {
+                service.put(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    protected void deleteEntities() {
+        for (String kind : new String[]{KIND, PUT_KIND}) {
+            List<Key> list = new ArrayList<>();
+            for (Entity entity : service.prepare(new Query(kind).setKeysOnly()).asIterable()) {
+                list.add(entity.getKey());
+            }
+            delete(list);
+        }
+    }
+
+    /**
+     * @param count number of entities created by createEntities
+     * @param baseline throughput per depth of the first depth, 0 on the first depth
+     * @return the throughput
+     */
+    protected double benchmarkPipeline(final Op op, final int depth, final int operations, int count, double baseline) throws Exception {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be positive: " + depth);
+        }
+        keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(createKey(i));
+        }
+        final Histogram issue = new Histogram(3);
+        final Histogram wait = new Histogram(3);
+        BenchmarkOperation operation = new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                Deque<Object> window = new ArrayDeque<>(depth);
+                for (int i = 0; i < operations; i++) {
+                    if (window.size() == depth) {
+                        await(window.poll(), wait);
+                    }
+                    long start = System.nanoTime();
+                    Object pending = issue(op);
+                    issue.recordValue(System.nanoTime() - start);
+                    window.add(pending);
+                }
+                while (window.isEmpty() == false) {
+                    await(window.poll(), wait);
+                }
+            }
+        };
+
+        Map<String, String> params = params("op", op, "depth", depth, "operations", operations);
+        // a single request thread, a pipeline is not shared
+        BenchmarkOptions options = getBenchmarkOptions().setThreads(1).setOperationsPerInvocation(operations);
+        options = warmUp("datastore.pipeline", params, options, operation);
+        issue.reset();
+        wait.reset();
+        BenchmarkResult result = measure("datastore.pipeline", params, options, operation);
+
+        double speedup = (baseline > 0) ? result.getScore() / baseline : depth;
+        result.addMetric("speedup", speedup);
+        result.addMetric("efficiency", speedup / depth);
+        result.addMetric("issue.p50.us", issue.getValueAtPercentile(50) / MICROS);
+        result.addMetric("issue.p99.us", issue.getValueAtPercentile(99) / MICROS);
+        result.addMetric("wait.p50.us", wait.getValueAtPercentile(50) / MICROS);
+        result.addMetric("wait.p99.us", wait.getValueAtPercentile(99) / MICROS);
+        return report(result).getScore();
+    }
+
+    /**
+     * @return the future, or the lazy result list of a query
+     */
+    protected Object issue(Op op) {
+        switch (op) {
+            case GET:
+                return asyncService.get(keys.get(ThreadLocalRandom.current().nextInt(keys.size())));
+            case PUT:
+                return asyncService.put(createEntity(new Entity(PUT_KIND), ThreadLocalRandom.current().nextInt(BUCKETS)));
+            case QUERY:
+                Query query = new Query(KIND).setFilter(new Query.FilterPredicate(BUCKET, Query.FilterOperator.EQUAL, ThreadLocalRandom.current().nextInt(BUCKETS)));
+                return asyncService.prepare(query).asList(FetchOptions.Builder.withLimit(QUERY_LIMIT).prefetchSize(QUERY_LIMIT));
+            default:
+                throw new IllegalArgumentException("Unknown op: " + op);
+        }
+    }
+
+    /**
+     * Async query results are fetched in the background, the first access of the list blocks until they are there.
+     */
+    private static void await(Object pending, Histogram wait) throws Exception {
+        long start = System.nanoTime();
+        Object value = (pending instanceof Future) ? ((Future<?>) pending).get() : ((List<?>) pending).size();
+        wait.recordValue(System.nanoTime() - start);
+        Assert.assertNotNull(value);
+    }
+
+    private static Key createKey(int i) {
+        return KeyFactory.createKey(KIND, "entity-" + i);
+    }
+
+    private static Entity createEntity(Entity entity, int i) {
+        entity.setProperty(BUCKET, i % BUCKETS);
+        entity.setUnindexedProperty(VALUE, "value-" + i);
+        return entity;
+    }
+
+    private void delete(List<Key> list) {
+        for (int i = 0; i < list.size(); i += MAX_BATCH_SIZE) {
+            service.delete(list.subList(i, Math.min(i + MAX_BATCH_SIZE, list.size())));
+        }
+    }
+}
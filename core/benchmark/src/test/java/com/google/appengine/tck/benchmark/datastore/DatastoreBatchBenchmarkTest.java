@@ -0,0 +1,348 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.datastore;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Raw DatastoreService / AsyncDatastoreService batch put, get and delete.
+ * <p/>
+ * Sweeps batch size, entity size, property count, entity group layout and transaction type;
+ * each dimension is a comma separated list in tck.properties, e.g. benchmark.datastore.batch.sizes=1,10,100,500.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class DatastoreBatchBenchmarkTest extends BenchmarkTestBase {
+    private static final String KIND = "DatastoreBatchBenchmark";
+    private static final String ROOT_KIND = "DatastoreBatchBenchmarkRoot";
+    private static final int MAX_XG_GROUPS = 25;
+    private static final int MAX_INDEXED_STRING = 1500;
+    private static final char[] CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+    private static final Random RANDOM = new Random();
+
+    private DatastoreService service;
+    private AsyncDatastoreService asyncService;
+
+    protected enum Api {
+        SYNC,
+        ASYNC
+    }
+
+    protected enum Layout {
+        SINGLE_ROOT,
+        MANY_ROOTS
+    }
+
+    protected enum Tx {
+        NONE,
+        TX,
+        XG
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        return getBenchmarkDeployment();
+    }
+
+    @Before
+    public void setUp() {
+        service = DatastoreServiceFactory.getDatastoreService();
+        asyncService = DatastoreServiceFactory.getAsyncDatastoreService();
+    }
+
+    @Test
+    @RunAsClient
+    public void testPut(@ArquillianResource URL url) throws Exception {
+        for (Api api : Api.values()) {
+            for (int batchSize : getBatchSizes()) {
+                for (int entitySize : getEntitySizes()) {
+                    for (int propertyCount : getPropertyCounts()) {
+                        for (Layout layout : Layout.values()) {
+                            for (Tx tx : Tx.values()) {
+                                if (isSupported(layout, tx)) {
+                                    invoke(url, "benchmarkPut", api, batchSize, entitySize, propertyCount, layout, tx);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testGet(@ArquillianResource URL url) throws Exception {
+        int entitySize = getEntitySizes()[0];
+        int propertyCount = getPropertyCounts()[0];
+        for (Api api : Api.values()) {
+            for (int batchSize : getBatchSizes()) {
+                for (Layout layout : Layout.values()) {
+                    for (Tx tx : Tx.values()) {
+                        if (isSupported(layout, tx)) {
+                            invoke(url, "benchmarkGet", api, batchSize, entitySize, propertyCount, layout, tx);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testDelete(@ArquillianResource URL url) throws Exception {
+        int entitySize = getEntitySizes()[0];
+        int propertyCount = getPropertyCounts()[0];
+        for (Api api : Api.values()) {
+            for (int batchSize : getBatchSizes()) {
+                for (Layout layout : Layout.values()) {
+                    for (Tx tx : Tx.values()) {
+                        if (isSupported(layout, tx)) {
+                            invoke(url, "benchmarkDelete", api, batchSize, entitySize, propertyCount, layout, tx);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    protected void benchmarkPut(final Api api, final int batchSize, int entitySize, int propertyCount, Layout layout, final Tx tx) throws Exception {
+        final Key[] parents = createParents(batchSize, layout, tx);
+        final Object[] values = createValues(entitySize, propertyCount);
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(batchSize);
+        benchmark("datastore.put", toParams(api, batchSize, entitySize, propertyCount, layout, tx), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                List<Entity> entities = createEntities(batchSize, parents, values);
+                List<Key> keys = put(api, tx, entities);
+                Assert.assertEquals(batchSize, keys.size());
+            }
+        });
+    }
+
+    protected void benchmarkGet(final Api api, final int batchSize, int entitySize, int propertyCount, Layout layout, final Tx tx) throws Exception {
+        Key[] parents = createParents(batchSize, layout, tx);
+        final List<Key> keys = service.put(createEntities(batchSize, parents, createValues(entitySize, propertyCount)));
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(batchSize);
+        benchmark("datastore.get", toParams(api, batchSize, entitySize, propertyCount, layout, tx), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                Map<Key, Entity> entities = get(api, tx, keys);
+                Assert.assertEquals(batchSize, entities.size());
+            }
+        });
+    }
+
+    protected void benchmarkDelete(final Api api, final int batchSize, int entitySize, int propertyCount, Layout layout, final Tx tx) throws Exception {
+        int invocations = Integer.parseInt(getBenchmarkProperty("benchmark.datastore.delete.invocations", "10"));
+        BenchmarkOptions options = getBenchmarkOptions().setInvocations(invocations).setOperationsPerInvocation(batchSize);
+
+        // deleted entities are gone, so every invocation needs its own pre-populated batch
+        int batches = (options.getWarmupIterations() + options.getMeasurementIterations()) * invocations * options.getThreads();
+        Key[] parents = createParents(batchSize, layout, tx);
+        Object[] values = createValues(entitySize, propertyCount);
+        final Queue<List<Key>> pool = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < batches; i++) {
+            pool.add(service.put(createEntities(batchSize, parents, values)));
+        }
+
+        benchmark("datastore.delete", toParams(api, batchSize, entitySize, propertyCount, layout, tx), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                List<Key> keys = pool.poll();
+                if (keys == null) {
+                    throw new IllegalStateException("No more pre-populated batches to delete.");
+                }
+                delete(api, tx, keys);
+            }
+        });
+    }
+
+    protected List<Key> put(Api api, Tx tx, List<Entity> entities) throws Exception {
+        if (tx == Tx.NONE) {
+            return (api == Api.SYNC) ? service.put(entities) : asyncService.put(entities).get();
+        }
+
+        Transaction txn = beginTransaction(api, tx);
+        try {
+            List<Key> keys = (api == Api.SYNC) ? service.put(txn, entities) : asyncService.put(txn, entities).get();
+            commit(api, txn);
+            return keys;
+        } finally {
+            if (txn.isActive()) {
+                txn.rollback();
+            }
+        }
+    }
+
+    protected Map<Key, Entity> get(Api api, Tx tx, List<Key> keys) throws Exception {
+        if (tx == Tx.NONE) {
+            return (api == Api.SYNC) ? service.get(keys) : asyncService.get(keys).get();
+        }
+
+        Transaction txn = beginTransaction(api, tx);
+        try {
+            Map<Key, Entity> entities = (api == Api.SYNC) ? service.get(txn, keys) : asyncService.get(txn, keys).get();
+            commit(api, txn);
+            return entities;
+        } finally {
+            if (txn.isActive()) {
+                txn.rollback();
+            }
+        }
+    }
+
+    protected void delete(Api api, Tx tx, List<Key> keys) throws Exception {
+        if (tx == Tx.NONE) {
+            if (api == Api.SYNC) {
+                service.delete(keys);
+            } else {
+                asyncService.delete(keys).get();
+            }
+            return;
+        }
+
+        Transaction txn = beginTransaction(api, tx);
+        try {
+            if (api == Api.SYNC) {
+                service.delete(txn, keys);
+            } else {
+                asyncService.delete(txn, keys).get();
+            }
+            commit(api, txn);
+        } finally {
+            if (txn.isActive()) {
+                txn.rollback();
+            }
+        }
+    }
+
+    private Transaction beginTransaction(Api api, Tx tx) throws Exception {
+        TransactionOptions options = (tx == Tx.XG) ? TransactionOptions.Builder.withXG(true) : TransactionOptions.Builder.withDefaults();
+        return (api == Api.SYNC) ? service.beginTransaction(options) : asyncService.beginTransaction(options).get();
+    }
+
+    private static void commit(Api api, Transaction txn) throws Exception {
+        if (api == Api.SYNC) {
+            txn.commit();
+        } else {
+            txn.commitAsync().get();
+        }
+    }
+
+    /**
+     * Non-XG transactions are limited to a single entity group.
+     */
+    protected static boolean isSupported(Layout layout, Tx tx) {
+        return (layout == Layout.SINGLE_ROOT || tx != Tx.TX);
+    }
+
+    /**
+     * Parent per entity slot; null parent means the entity is its own root.
+     * Many roots within a XG transaction are limited to 25 entity groups.
+     */
+    protected static Key[] createParents(int batchSize, Layout layout, Tx tx) {
+        String prefix = ROOT_KIND + System.nanoTime();
+        Key[] parents;
+        if (layout == Layout.SINGLE_ROOT) {
+            parents = new Key[]{KeyFactory.createKey(ROOT_KIND, prefix)};
+        } else if (tx == Tx.XG) {
+            parents = new Key[Math.min(batchSize, MAX_XG_GROUPS)];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = KeyFactory.createKey(ROOT_KIND, prefix + "-" + i);
+            }
+        } else {
+            parents = new Key[]{null};
+        }
+        return parents;
+    }
+
+    /**
+     * Property values adding up to entity size; values over the indexed string limit are stored as Text.
+     */
+    protected static Object[] createValues(int entitySize, int propertyCount) {
+        int length = Math.max(1, entitySize / propertyCount);
+        Object[] values = new Object[propertyCount];
+        for (int i = 0; i < propertyCount; i++) {
+            String value = randomString(length);
+            values[i] = (length > MAX_INDEXED_STRING) ? new Text(value) : value;
+        }
+        return values;
+    }
+
+    protected static List<Entity> createEntities(int batchSize, Key[] parents, Object[] values) {
+        List<Entity> entities = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            Key parent = parents[i % parents.length];
+            Entity entity = (parent != null) ? new Entity(KIND, parent) : new Entity(KIND);
+            for (int j = 0; j < values.length; j++) {
+                entity.setProperty("p" + j, values[j]);
+            }
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    private static String randomString(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = CHARS[RANDOM.nextInt(CHARS.length)];
+        }
+        return new String(chars);
+    }
+
+    private static Map<String, String> toParams(Api api, int batchSize, int entitySize, int propertyCount, Layout layout, Tx tx) {
+        return params("api", api, "batchSize", batchSize, "entitySize", entitySize, "propertyCount", propertyCount, "layout", layout, "tx", tx);
+    }
+
+    private static int[] getBatchSizes() {
+        return getIntValues("benchmark.datastore.batch.sizes", "1,10,100,500");
+    }
+
+    private static int[] getEntitySizes() {
+        return getIntValues("benchmark.datastore.entity.sizes", "1000");
+    }
+
+    private static int[] getPropertyCounts() {
+        return getIntValues("benchmark.datastore.property.counts", "10");
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.datastore;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.google.appengine.api.datastore.Query.CompositeFilterOperator.and;
+import static com.google.appengine.api.datastore.Query.FilterOperator.EQUAL;
+import static com.google.appengine.api.datastore.Query.FilterOperator.GREATER_THAN_OR_EQUAL;
+
+/**
+ * Query throughput and latency as the dataset grows.
+ * <p/>
+ * Each dataset size (benchmark.datastore.query.sizes, by default 10000,100000,1000000) is loaded once and kept;
+ * an incomplete dataset is loaded again in id ranges, entities have named keys, so re-putting them is harmless.
+ * Equality, projection and keys-only queries select the same 10% of the dataset,
+ * so their numbers are directly comparable; the result limit is swept with benchmark.datastore.query.limits.
+ * <p/>
+ * Cursor paging sweeps page size, chunk size and prefetch size.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class QueryBenchmarkTest extends BenchmarkTestBase {
+    private static final String KIND = "QueryBenchmark";
+    private static final int GROUPS = 10;
+    private static final int CATEGORIES = 100;
+    private static final int LOAD_BATCH_SIZE = 500;
+    private static final int LOAD_BATCHES_PER_REQUEST = 20;
+    private static final int MAX_SYNC_ATTEMPTS = 30;
+    // makes full entity fetches noticeably heavier than projection and keys-only
+    private static final String PAYLOAD = new String(new char[1000]).replace('\0', 'x');
+
+    private DatastoreService service;
+
+    protected enum QueryType {
+        EQUALITY,
+        INEQUALITY_SORT,
+        PROJECTION,
+        KEYS_ONLY,
+        DISTINCT
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        return getBenchmarkDeployment().addAsWebInfResource("datastore-indexes-query-benchmark.xml", "datastore-indexes.xml");
+    }
+
+    @Before
+    public void setUp() {
+        service = DatastoreServiceFactory.getDatastoreService();
+    }
+
+    @Test
+    @RunAsClient
+    public void testQueries(@ArquillianResource URL url) throws Exception {
+        for (int size : getSizes()) {
+            loadDataset(url, size);
+            for (QueryType type : QueryType.values()) {
+                for (int limit : getLimits()) {
+                    invoke(url, "benchmarkQuery", type, size, limit);
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testCursorPaging(@ArquillianResource URL url) throws Exception {
+        int pages = Integer.parseInt(getBenchmarkProperty("benchmark.datastore.query.pages", "5"));
+        for (int size : getSizes()) {
+            loadDataset(url, size);
+            for (int pageSize : getIntValues("benchmark.datastore.query.page.sizes", "20,100")) {
+                for (int chunkSize : getIntValues("benchmark.datastore.query.chunk.sizes", "20,100,500")) {
+                    for (int prefetchSize : getIntValues("benchmark.datastore.query.prefetch.sizes", "0,20,100")) {
+                        invoke(url, "benchmarkCursorPaging", size, pages, pageSize, chunkSize, prefetchSize);
+                    }
+                }
+            }
+        }
+    }
+
+    protected void benchmarkQuery(QueryType type, int size, int limit) throws Exception {
+        final Query query = createQuery(type, size);
+        final FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+        final int expected = Math.min(limit, getExpectedCount(type, size));
+        benchmark("datastore.query", params("type", type, "size", size, "limit", limit), getBenchmarkOptions(), new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                List<Entity> results = service.prepare(query).asList(fetchOptions);
+                Assert.assertEquals(expected, results.size());
+            }
+        });
+    }
+
+    /**
+     * Each invocation walks the given number of pages, every page is a new query started from the previous cursor.
+     */
+    protected void benchmarkCursorPaging(int size, final int pages, final int pageSize, final int chunkSize, final int prefetchSize) throws Exception {
+        final Query query = createQuery(QueryType.EQUALITY, size);
+        final int count = getExpectedCount(QueryType.EQUALITY, size);
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(pages);
+        benchmark("datastore.query.paging", params("size", size, "pageSize", pageSize, "chunkSize", chunkSize, "prefetchSize", prefetchSize), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                Cursor cursor = null;
+                for (int i = 0; i < pages; i++) {
+                    FetchOptions page = FetchOptions.Builder.withLimit(pageSize).chunkSize(chunkSize);
+                    if (prefetchSize > 0) {
+                        page.prefetchSize(prefetchSize);
+                    }
+                    if (cursor != null) {
+                        page.startCursor(cursor);
+                    }
+                    QueryResultList<Entity> results = service.prepare(query).asQueryResultList(page);
+                    Assert.assertEquals(Math.max(0, Math.min(pageSize, count - i * pageSize)), results.size());
+                    cursor = results.getCursor();
+                }
+            }
+        });
+    }
+
+    /**
+     * All queries are restricted to a single dataset by its size; the indexes are in datastore-indexes-query-benchmark.xml.
+     */
+    protected static Query createQuery(QueryType type, int size) {
+        Query.Filter dataset = new Query.FilterPredicate("size", EQUAL, size);
+        Query.Filter group = new Query.FilterPredicate("group", EQUAL, 0);
+        Query query = new Query(KIND);
+        switch (type) {
+            case EQUALITY:
+                return query.setFilter(and(dataset, group));
+            case INEQUALITY_SORT:
+                return query.setFilter(and(dataset, new Query.FilterPredicate("value", GREATER_THAN_OR_EQUAL, size / 2)))
+                    .addSort("value", Query.SortDirection.DESCENDING);
+            case PROJECTION:
+                return query.setFilter(and(dataset, group))
+                    .addProjection(new PropertyProjection("value", Long.class));
+            case KEYS_ONLY:
+                return query.setFilter(and(dataset, group)).setKeysOnly();
+            case DISTINCT:
+                return query.setFilter(dataset)
+                    .addProjection(new PropertyProjection("category", String.class))
+                    .setDistinct(true);
+            default:
+                throw new IllegalArgumentException("Unknown query type: " + type);
+        }
+    }
+
+    protected static int getExpectedCount(QueryType type, int size) {
+        switch (type) {
+            case INEQUALITY_SORT:
+                return size - size / 2;
+            case DISTINCT:
+                return Math.min(size, CATEGORIES);
+            default:
+                return (size + GROUPS - 1) / GROUPS;
+        }
+    }
+
+    /**
+     * Loads the dataset in explicit id ranges, one request per range, unless it is already complete,
+     * and then waits until the queries see all of it.
+     */
+    private void loadDataset(URL url, int size) throws Exception {
+        int visible = Integer.parseInt(invoke(url, "countDataset", size));
+        if (visible < size) {
+            // named keys, so re-putting what an earlier run already loaded is harmless
+            for (int from = 0; from < size; from += LOAD_BATCHES_PER_REQUEST * LOAD_BATCH_SIZE) {
+                invoke(url, "loadDatasetRange", size, from, Math.min(size, from + LOAD_BATCHES_PER_REQUEST * LOAD_BATCH_SIZE));
+            }
+        }
+
+        int attempt = 0;
+        while (visible < size) {
+            sync(1000);
+            int count = Integer.parseInt(invoke(url, "countDataset", size));
+            if (count > visible) {
+                attempt = 0;
+            } else if (++attempt >= MAX_SYNC_ATTEMPTS) {
+                throw new IllegalStateException(String.format("Only %s of %s entities of the dataset are visible to queries.", count, size));
+            }
+            visible = count;
+        }
+    }
+
+    /**
+     * Puts the dataset's entities with ids from (inclusive) to (exclusive).
+     */
+    protected void loadDatasetRange(int size, int from, int to) throws Exception {
+        log.info(String.format(">>>> Loading %s entities into %s dataset of size %s", to - from, KIND, size));
+        List<Entity> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+        for (int i = from; i < to; i++) {
+            batch.add(createEntity(size, i));
+            if (batch.size() == LOAD_BATCH_SIZE) {
+                service.put(batch);
+                batch.clear();
+            }
+        }
+        if (batch.isEmpty() == false) {
+            service.put(batch);
+        }
+    }
+
+    protected int countDataset(int size) {
+        Query query = new Query(KIND).setFilter(new Query.FilterPredicate("size", EQUAL, size)).setKeysOnly();
+        return service.prepare(query).countEntities(FetchOptions.Builder.withLimit(size));
+    }
+
+    protected static Entity createEntity(int size, int index) {
+        Entity entity = new Entity(KIND, size + "-" + index);
+        entity.setProperty("size", size);
+        entity.setProperty("group", index % GROUPS);
+        entity.setProperty("value", index);
+        entity.setProperty("category", "category-" + (index % CATEGORIES));
+        entity.setUnindexedProperty("payload", PAYLOAD);
+        return entity;
+    }
+
+    private static int[] getSizes() {
+        return getIntValues("benchmark.datastore.query.sizes", "10000,100000,1000000");
+    }
+
+    private static int[] getLimits() {
+        return getIntValues("benchmark.datastore.query.limits", "10,100,1000");
+    }
+}
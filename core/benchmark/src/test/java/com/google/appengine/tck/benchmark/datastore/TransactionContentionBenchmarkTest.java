@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.datastore;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.support.ContendedTxServlet;
+import com.google.appengine.tck.benchmark.support.TxClient;
+import org.HdrHistogram.Histogram;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Transaction contention, the load mode of the byteman SameEntityGroupTest / DiffEntityGroupTest.
+ * <p/>
+ * benchmark.datastore.tx.threads concurrent HTTP clients run ContendedTxServlet transactions
+ * round-robin over benchmark.datastore.tx.groups entity groups, 1 being all clients on the same group;
+ * both plain and XG transactions, the latter spanning two groups.
+ * Conflicting transactions are retried up to benchmark.datastore.tx.retries times, with exponential backoff and jitter
+ * starting at benchmark.datastore.tx.backoff millis (10), see ContendedTxServlet.
+ * <p/>
+ * Throughput counts every transaction; the metrics have committed tx/s, conflict rate (conflicts per attempt),
+ * failure rate (out of retries) and retry latency, i.e. from the first attempt to commit of transactions which conflicted,
+ * all of them measurement iterations only.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class TransactionContentionBenchmarkTest extends BenchmarkTestBase {
+    private static final double MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment(new TestContext().setWebXmlFile("web-tx-benchmark.xml"));
+        war.addClass(ContendedTxServlet.class);
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testContention(@ArquillianResource URL url) throws Exception {
+        int retries = Integer.parseInt(getBenchmarkProperty("benchmark.datastore.tx.retries", "10"));
+        long backoff = Long.parseLong(getBenchmarkProperty("benchmark.datastore.tx.backoff", "10"));
+        for (boolean xg : new boolean[]{false, true}) {
+            for (int groups : getIntValues("benchmark.datastore.tx.groups", "1,10")) {
+                for (int threads : getIntValues("benchmark.datastore.tx.threads", "1,4,16")) {
+                    benchmarkContention(url, xg, groups, threads, retries, backoff);
+                }
+            }
+        }
+    }
+
+    protected void benchmarkContention(URL url, final boolean xg, final int groups, int threads, final int retries, final long backoff) throws Exception {
+        if (groups < 1) {
+            throw new IllegalArgumentException("Groups must be positive: " + groups);
+        }
+        final AtomicInteger counter = new AtomicInteger();
+        final AtomicReference<ContentionStats> stats = new AtomicReference<>(new ContentionStats());
+        try (final TxClient client = new TxClient(url, threads)) {
+            String name = "datastore.tx.contention";
+            Map<String, String> params = params("xg", xg, "groups", groups, "threads", threads, "retries", retries, "backoff", backoff);
+            BenchmarkOperation operation = new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    int group = (counter.getAndIncrement() & Integer.MAX_VALUE) % groups;
+                    stats.get().record(client.increment(group, groups, xg, retries, backoff));
+                }
+            };
+            BenchmarkOptions options = warmUp(name, params, getBenchmarkOptions().setThreads(threads), operation);
+            stats.set(new ContentionStats());
+            BenchmarkResult result = measure(name, params, options, operation);
+            report(stats.get().addTo(result));
+        }
+    }
+
+    private static class ContentionStats {
+        private final AtomicLong transactions = new AtomicLong();
+        private final AtomicLong attempts = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final Histogram retryLatency = new Histogram(3);
+
+        private void record(TxClient.Result result) {
+            transactions.incrementAndGet();
+            attempts.addAndGet(result.getAttempts());
+            if (result.isCommitted() == false) {
+                failures.incrementAndGet();
+            } else if (result.getAttempts() > 1) {
+                synchronized (retryLatency) {
+                    retryLatency.recordValue(result.getElapsed());
+                }
+            }
+        }
+
+        private BenchmarkResult addTo(BenchmarkResult result) {
+            double failureRate = (double) failures.get() / Math.max(1, transactions.get());
+            result
+                .addMetric("committed.tx.per.s", result.getScore() * (1 - failureRate))
+                .addMetric("conflict.rate", (double) (attempts.get() - transactions.get()) / Math.max(1, attempts.get()))
+                .addMetric("failure.rate", failureRate);
+            synchronized (retryLatency) {
+                result
+                    .addMetric("retried.tx", retryLatency.getTotalCount())
+                    .addMetric("retry.latency.p50.ms", retryLatency.getValueAtPercentile(50) / MILLIS)
+                    .addMetric("retry.latency.p99.ms", retryLatency.getValueAtPercentile(99) / MILLIS)
+                    .addMetric("retry.latency.max.ms", retryLatency.getMaxValue() / MILLIS);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.endpoints;
+
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.support.BenchmarkEndPoint;
+import com.google.appengine.tck.benchmark.support.NestedPayload;
+import com.google.appengine.tck.benchmark.support.PooledEndPointClient;
+import com.google.appengine.tck.endpoints.support.Bar;
+import com.google.appengine.tck.endpoints.support.BarTransformer;
+import com.google.appengine.tck.endpoints.support.Baz;
+import com.google.appengine.tck.endpoints.support.BazTransformer;
+import com.google.appengine.tck.endpoints.support.EndPointClient;
+import com.google.appengine.tck.endpoints.support.Foo;
+import com.google.appengine.tck.lib.LibUtils;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Endpoints request and response serialization cost, payload size and throughput, over REST and JSON-RPC.
+ * <p/>
+ * Payloads are NestedPayload trees, benchmark.endpoints.sizes Foo, Bar and Baz beans per node,
+ * benchmark.endpoints.depths levels of NestedPayload.FANOUT children.
+ * Responses serialize the whole tree, echo requests deserialize it as well (without foos, which can't be deserialized).
+ * Concurrent clients share one PooledEndPointClient with a connection each.
+ * <p/>
+ * Serialization cost is not visible from the client, it is estimated as the median latency over the
+ * median latency of an empty payload (size and depth 0) with the same protocol, method and threads.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class EndpointsBenchmarkTest extends BenchmarkTestBase {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double MB = 1024 * 1024;
+
+    protected enum Protocol {
+        REST,
+        RPC
+    }
+
+    protected enum Method {
+        GET,
+        ECHO
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment(new TestContext().setWebXmlFile("web-endpoints-benchmark.xml"));
+        war.addClasses(BenchmarkEndPoint.class, NestedPayload.class);
+        war.addClasses(Foo.class, Bar.class, BarTransformer.class, Baz.class, BazTransformer.class);
+        new LibUtils().addLibrary(war, "com.google.appengine:appengine-endpoints");
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testResponseSerialization(@ArquillianResource URL url) throws Exception {
+        benchmarkPayloads(url, Method.GET);
+    }
+
+    @Test
+    @RunAsClient
+    public void testRequestSerialization(@ArquillianResource URL url) throws Exception {
+        benchmarkPayloads(url, Method.ECHO);
+    }
+
+    protected void benchmarkPayloads(URL url, Method method) throws Exception {
+        for (Protocol protocol : Protocol.values()) {
+            for (int threads : getIntValues("benchmark.endpoints.threads", "1,4,16")) {
+                EndPointClient client = new PooledEndPointClient(threads);
+                try {
+                    BenchmarkResult empty = benchmarkPayload(client, url, protocol, method, 0, 0, threads, null);
+                    for (int depth : getIntValues("benchmark.endpoints.depths", "0,3")) {
+                        for (int size : getIntValues("benchmark.endpoints.sizes", "10,100,1000")) {
+                            benchmarkPayload(client, url, protocol, method, size, depth, threads, empty);
+                        }
+                    }
+                } finally {
+                    client.shutdown();
+                }
+            }
+        }
+    }
+
+    protected BenchmarkResult benchmarkPayload(final EndPointClient client, URL root, final Protocol protocol, final Method method, int size, int depth, int threads, BenchmarkResult empty) throws Exception {
+        final URL url = getUrl(root, protocol, method, size, depth);
+        final String request = getRequest(protocol, method, size, depth);
+
+        // the first response is checked, the rest must be the same
+        String first = send(client, url, request);
+        checkPayload(getPayload(protocol, first), method, size, depth);
+        final int expected = first.length();
+
+        BenchmarkOptions options = getBenchmarkOptions().setThreads(threads);
+        Map<String, String> params = params("protocol", protocol, "method", method, "size", size, "depth", depth, "threads", threads);
+        BenchmarkResult result = measure("endpoints." + method.name().toLowerCase(), params, options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                Assert.assertEquals(expected, send(client, url, request).length());
+            }
+        });
+
+        int requestBytes = (request != null) ? request.getBytes(UTF_8).length : 0;
+        int responseBytes = first.getBytes(UTF_8).length;
+        result.addMetric("nodes", NestedPayload.nodes(depth));
+        result.addMetric("request.bytes", requestBytes);
+        result.addMetric("response.bytes", responseBytes);
+        result.addMetric("payload.mb.s", result.getScore() * (requestBytes + responseBytes) / MB);
+        if (empty != null) {
+            result.addMetric("serialization.us", Math.max(0, result.getLatencyAt(50) - empty.getLatencyAt(50)));
+        }
+        return report(result);
+    }
+
+    private static String send(EndPointClient client, URL url, String request) throws Exception {
+        return (request != null) ? client.doPost(url, request) : client.doGet(url);
+    }
+
+    protected static URL getUrl(URL root, Protocol protocol, Method method, int size, int depth) throws Exception {
+        if (protocol == Protocol.RPC) {
+            return new URL(root, "_ah/api/rpc");
+        }
+        String path = "_ah/api/" + BenchmarkEndPoint.NAME + "/" + BenchmarkEndPoint.VERSION + "/payload";
+        if (method == Method.GET) {
+            return new URL(root, path + "?size=" + size + "&depth=" + depth);
+        } else {
+            return new URL(root, path + "/echo");
+        }
+    }
+
+    /**
+     * REST gets have no body.
+     */
+    protected static String getRequest(Protocol protocol, Method method, int size, int depth) throws Exception {
+        if (protocol == Protocol.REST) {
+            return (method == Method.GET) ? null : toJSON(size, depth, "root").toString();
+        }
+        JSONObject params = new JSONObject();
+        if (method == Method.GET) {
+            params.put("size", size);
+            params.put("depth", depth);
+        } else {
+            params.put("resource", toJSON(size, depth, "root"));
+        }
+        JSONObject rpc = new JSONObject();
+        rpc.put("jsonrpc", "2.0");
+        rpc.put("id", "benchmark");
+        rpc.put("method", BenchmarkEndPoint.NAME + ".payload." + method.name().toLowerCase());
+        rpc.put("apiVersion", BenchmarkEndPoint.VERSION);
+        rpc.put("params", params);
+        return rpc.toString();
+    }
+
+    /**
+     * The request payload, the same tree as NestedPayload.create, but Bar and Baz are already in their transformed form.
+     */
+    protected static JSONObject toJSON(int size, int depth, String name) throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("name", name);
+        JSONArray bars = new JSONArray();
+        JSONArray bazs = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            bars.put(i + "," + (i + 1));
+            bazs.put(i + "," + (i + 1));
+        }
+        json.put("bars", bars);
+        json.put("bazs", bazs);
+        JSONArray children = new JSONArray();
+        if (depth > 0) {
+            for (int i = 0; i < NestedPayload.FANOUT; i++) {
+                children.put(toJSON(size, depth - 1, name + "." + i));
+            }
+        }
+        json.put("children", children);
+        return json;
+    }
+
+    private static JSONObject getPayload(Protocol protocol, String response) throws Exception {
+        JSONObject json = new JSONObject(response);
+        if (json.has("error")) {
+            throw new IllegalStateException("Endpoint error: " + response);
+        }
+        return (protocol == Protocol.RPC) ? json.getJSONObject("result") : json;
+    }
+
+    /**
+     * Empty lists are left out of the response, echoed payloads have no foos.
+     */
+    private static void checkPayload(JSONObject payload, Method method, int size, int depth) throws Exception {
+        Assert.assertEquals(size, length(payload, "bars"));
+        Assert.assertEquals(size, length(payload, "bazs"));
+        Assert.assertEquals(method == Method.GET ? size : 0, length(payload, "foos"));
+        if (size > 0) {
+            String last = (size - 1) + "," + size;
+            Assert.assertEquals(last, payload.getJSONArray("bars").getString(size - 1));
+            Assert.assertEquals(last, payload.getJSONArray("bazs").getString(size - 1));
+        }
+        if (size > 0 && method == Method.GET) {
+            // x is kept, y is ignored, z is renamed
+            JSONObject foo = payload.getJSONArray("foos").getJSONObject(0);
+            Assert.assertTrue(foo.has("qwerty") && foo.has("y") == false);
+        }
+        Assert.assertEquals(depth > 0 ? NestedPayload.FANOUT : 0, length(payload, "children"));
+        if (depth > 0) {
+            checkPayload(payload.getJSONArray("children").getJSONObject(0), method, size, depth - 1);
+        }
+    }
+
+    private static int length(JSONObject payload, String key) throws Exception {
+        return payload.has(key) ? payload.getJSONArray(key).length() : 0;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.gcs;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.appengine.api.utils.SystemProperty;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.lib.LibUtils;
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsInputChannel;
+import com.google.appengine.tools.cloudstorage.GcsOutputChannel;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
+import com.google.appengine.tools.cloudstorage.GcsServiceOptions;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * GCS client streaming write and read throughput.
+ * <p/>
+ * One operation is one MB, so throughput is in MB/s.
+ * GcsOutputChannel writes sweep object sizes (benchmark.gcs.sizes MB) and the service's write buffer size;
+ * GcsInputChannel reads sweep the application's read buffer size, prefetching reads the prefetch block size.
+ * Parallel reads spread concurrent readers over benchmark.gcs.parallel.objects objects.
+ * <p/>
+ * The bucket is tck.gcs.bucket, or the application's default bucket;
+ * on the SDK the GCS client uses the development server's local storage (backed by the Files API, enabled by the sdk profile),
+ * so no network is needed.
+ * All objects are deleted at the end of each benchmark.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class GcsClientBenchmarkTest extends BenchmarkTestBase {
+    private static final int MB = 1024 * 1024;
+    private static final String PREFIX = "benchmark/";
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment();
+        LibUtils libUtils = new LibUtils();
+        libUtils.addLibrary(war, "com.google.guava", "guava");
+        libUtils.addLibrary(war, "com.google.appengine.tools", "appengine-gcs-client");
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testWrite(@ArquillianResource URL url) throws Exception {
+        for (int size : getSizes()) {
+            String name = "write-" + size;
+            try {
+                for (int bufferSize : getIntValues("benchmark.gcs.write.buffer.sizes", "262144,1048576,8388608")) {
+                    invoke(url, "benchmarkWrite", name, size, bufferSize);
+                }
+            } finally {
+                invoke(url, "deleteObject", name);
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testRead(@ArquillianResource URL url) throws Exception {
+        for (int size : getSizes()) {
+            String name = "read-" + size;
+            try {
+                invoke(url, "createObject", name, size);
+                for (int bufferSize : getIntValues("benchmark.gcs.read.buffer.sizes", "8192,65536,1048576")) {
+                    invoke(url, "benchmarkRead", name, size, bufferSize, 0);
+                }
+                for (int blockSize : getIntValues("benchmark.gcs.prefetch.sizes", "262144,1048576,4194304")) {
+                    invoke(url, "benchmarkRead", name, size, MB, blockSize);
+                }
+            } finally {
+                invoke(url, "deleteObject", name);
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testParallelRead(@ArquillianResource URL url) throws Exception {
+        int size = Integer.parseInt(getBenchmarkProperty("benchmark.gcs.parallel.size", "1"));
+        int objects = Integer.parseInt(getBenchmarkProperty("benchmark.gcs.parallel.objects", "16"));
+        try {
+            for (int i = 0; i < objects; i++) {
+                invoke(url, "createObject", getParallelName(i), size);
+            }
+            for (int threads : getIntValues("benchmark.gcs.parallel.threads", "1,4,16")) {
+                invoke(url, "benchmarkParallelRead", objects, size, threads);
+            }
+        } finally {
+            for (int i = 0; i < objects; i++) {
+                invoke(url, "deleteObject", getParallelName(i));
+            }
+        }
+    }
+
+    protected void benchmarkWrite(String name, final int size, int bufferSize) throws Exception {
+        final GcsFilename filename = getFilename(name);
+        final GcsService service = GcsServiceFactory.createGcsService(new GcsServiceOptions.Builder().withDefaultWriteBufferSize(bufferSize).build());
+        final ByteBuffer chunk = createChunk();
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(size);
+        benchmark("gcs.write", params("size", size, "bufferSize", bufferSize), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                write(service, filename, size, chunk);
+            }
+        });
+    }
+
+    /**
+     * Block size 0 reads with a plain read channel.
+     */
+    protected void benchmarkRead(String name, final int size, int bufferSize, final int blockSize) throws Exception {
+        final GcsFilename filename = getFilename(name);
+        final GcsService service = GcsServiceFactory.createGcsService();
+        final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(size);
+        String benchmark = (blockSize > 0) ? "gcs.read.prefetching" : "gcs.read";
+        benchmark(benchmark, params("size", size, "bufferSize", bufferSize, "blockSize", blockSize), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                Assert.assertEquals((long) size * MB, read(service, filename, buffer, blockSize));
+            }
+        });
+    }
+
+    protected void benchmarkParallelRead(int objects, final int size, int threads) throws Exception {
+        final GcsFilename[] filenames = new GcsFilename[objects];
+        for (int i = 0; i < objects; i++) {
+            filenames[i] = getFilename(getParallelName(i));
+        }
+        final GcsService service = GcsServiceFactory.createGcsService();
+        final AtomicInteger counter = new AtomicInteger();
+        BenchmarkOptions options = getBenchmarkOptions().setThreads(threads).setOperationsPerInvocation(size);
+        benchmark("gcs.read.parallel", params("objects", filenames.length, "size", size, "threads", threads), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                GcsFilename filename = filenames[(counter.getAndIncrement() & Integer.MAX_VALUE) % filenames.length];
+                Assert.assertEquals((long) size * MB, read(service, filename, ByteBuffer.allocate(MB), MB));
+            }
+        });
+    }
+
+    private static void write(GcsService service, GcsFilename filename, int size, ByteBuffer chunk) throws IOException {
+        try (GcsOutputChannel channel = service.createOrReplace(filename, GcsFileOptions.getDefaultInstance())) {
+            for (int i = 0; i < size; i++) {
+                ByteBuffer buffer = chunk.duplicate();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    private static long read(GcsService service, GcsFilename filename, ByteBuffer buffer, int blockSize) throws IOException {
+        long total = 0;
+        try (GcsInputChannel channel = (blockSize > 0) ? service.openPrefetchingReadChannel(filename, 0, blockSize) : service.openReadChannel(filename, 0)) {
+            int r;
+            buffer.clear();
+            while ((r = channel.read(buffer)) != -1) {
+                total += r;
+                buffer.clear();
+            }
+        }
+        return total;
+    }
+
+    protected static void createObject(String name, int size) throws IOException {
+        write(GcsServiceFactory.createGcsService(), getFilename(name), size, createChunk());
+    }
+
+    /**
+     * Random content, so nothing on the way can compress it.
+     */
+    private static ByteBuffer createChunk() {
+        byte[] bytes = new byte[MB];
+        new Random().nextBytes(bytes);
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    protected static void deleteObject(String name) throws IOException {
+        GcsServiceFactory.createGcsService().delete(getFilename(name));
+    }
+
+    private static GcsFilename getFilename(String name) {
+        String bucket = getBenchmarkProperty("tck.gcs.bucket", null);
+        if (bucket == null) {
+            bucket = SystemProperty.applicationId.get() + ".appspot.com";
+        }
+        return new GcsFilename(bucket, PREFIX + name);
+    }
+
+    private static String getParallelName(int i) {
+        return "parallel-" + i;
+    }
+
+    private static int[] getSizes() {
+        return getIntValues("benchmark.gcs.sizes", "1,16");
+    }
+}
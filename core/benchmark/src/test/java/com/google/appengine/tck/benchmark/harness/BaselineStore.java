@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * File based store of benchmark results per environment and revision, [root]/[environment]/[revision]/[id].json.
+ * <p/>
+ * Every environment keeps a builds.log of saved revisions, oldest first, each with whether it last passed the regression gate,
+ * so the latest passed revision is the default baseline.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BaselineStore {
+    private static final String BUILDS = "builds.log";
+
+    private final File root;
+
+    public BaselineStore(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Reads all [id].json results in the directory.
+     *
+     * @return results by id
+     */
+    public static Map<String, JSONObject> readResults(File directory) throws IOException {
+        Map<String, JSONObject> results = new TreeMap<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return results;
+        }
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(".json")) {
+                JSONObject json = read(file);
+                results.put(json.optString("id", file.getName()), json);
+            }
+        }
+        return results;
+    }
+
+    public Map<String, JSONObject> load(String environment, String revision) throws IOException {
+        return readResults(getDirectory(environment, revision));
+    }
+
+    /**
+     * Saves the results of one environment, replacing any results and build saved for the same revision.
+     */
+    public void save(String environment, String revision, boolean passed, Iterable<JSONObject> results) throws IOException {
+        BenchmarkReporter reporter = new BenchmarkReporter(getDirectory(environment, revision));
+        reporter.clean();
+        for (JSONObject json : results) {
+            reporter.write(json);
+        }
+        List<String[]> builds = getBuilds(environment);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(root, environment + File.separator + BUILDS)), "UTF-8")) {
+            for (String[] build : builds) {
+                if (build[1].equals(revision) == false) {
+                    writer.write(String.format("%s %s %s%n", build[0], build[1], build[2]));
+                }
+            }
+            writer.write(String.format("%s %s %s%n", System.currentTimeMillis(), revision, passed ? "PASSED" : "FAILED"));
+        }
+    }
+
+    /**
+     * The revision to compare against, the last one which passed the gate, other than the current one.
+     *
+     * @return the revision, or null if there is none
+     */
+    public String getLatestPassed(String environment, String current) throws IOException {
+        List<String[]> builds = getBuilds(environment);
+        Collections.reverse(builds);
+        for (String[] build : builds) {
+            if ("PASSED".equals(build[2]) && build[1].equals(current) == false && getDirectory(environment, build[1]).exists()) {
+                return build[1];
+            }
+        }
+        return null;
+    }
+
+    private List<String[]> getBuilds(String environment) throws IOException {
+        List<String[]> builds = new ArrayList<>();
+        File file = new File(root, environment + File.separator + BUILDS);
+        if (file.exists() == false) {
+            return builds;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] split = line.trim().split(" ");
+                if (split.length == 3) {
+                    builds.add(split);
+                }
+            }
+        }
+        return builds;
+    }
+
+    private File getDirectory(String environment, String revision) {
+        return new File(root, environment + File.separator + revision);
+    }
+
+    private static JSONObject read(File file) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+            return new JSONObject(new JSONTokener(reader));
+        } catch (JSONException e) {
+            throw new IOException("Invalid benchmark result: " + file, e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+/**
+ * Single benchmarked invocation.
+ * Must be thread safe if the benchmark runs with more than one thread.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public interface BenchmarkOperation {
+    /**
+     * Invoke the measured code once.
+     *
+     * @throws Exception for any error, this aborts the benchmark
+     */
+    void invoke() throws Exception;
+}
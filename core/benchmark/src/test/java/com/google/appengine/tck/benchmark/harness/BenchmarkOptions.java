@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Benchmark run options, modeled after JMH's warmup / measurement iterations.
+ * <p/>
+ * An iteration either runs for {@code iterationTime} millis,
+ * or, if {@code invocations} is positive, for exactly that many invocations per thread.
+ * A positive {@code rate} makes the run open-loop, see OpenLoopRunner.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BenchmarkOptions implements Cloneable {
+    private int warmupIterations = 3;
+    private int measurementIterations = 5;
+    private long iterationTime = 1000L;
+    private int invocations;
+    private int threads = 1;
+    private int operationsPerInvocation = 1;
+    private double rate;
+    private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+    public int getWarmupIterations() {
+        return warmupIterations;
+    }
+
+    public BenchmarkOptions setWarmupIterations(int warmupIterations) {
+        if (warmupIterations < 0) {
+            throw new IllegalArgumentException("Negative warmup iterations: " + warmupIterations);
+        }
+        this.warmupIterations = warmupIterations;
+        return this;
+    }
+
+    public int getMeasurementIterations() {
+        return measurementIterations;
+    }
+
+    public BenchmarkOptions setMeasurementIterations(int measurementIterations) {
+        if (measurementIterations < 1) {
+            throw new IllegalArgumentException("Need at least one measurement iteration: " + measurementIterations);
+        }
+        this.measurementIterations = measurementIterations;
+        return this;
+    }
+
+    public long getIterationTime() {
+        return iterationTime;
+    }
+
+    public BenchmarkOptions setIterationTime(long iterationTime) {
+        if (iterationTime <= 0) {
+            throw new IllegalArgumentException("Iteration time must be positive: " + iterationTime);
+        }
+        this.iterationTime = iterationTime;
+        return this;
+    }
+
+    public int getInvocations() {
+        return invocations;
+    }
+
+    public BenchmarkOptions setInvocations(int invocations) {
+        this.invocations = invocations;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public BenchmarkOptions setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread: " + threads);
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    public int getOperationsPerInvocation() {
+        return operationsPerInvocation;
+    }
+
+    public BenchmarkOptions setOperationsPerInvocation(int operationsPerInvocation) {
+        if (operationsPerInvocation < 1) {
+            throw new IllegalArgumentException("Need at least one operation per invocation: " + operationsPerInvocation);
+        }
+        this.operationsPerInvocation = operationsPerInvocation;
+        return this;
+    }
+
+    /**
+     * Target invocations per second of an open-loop run, spread over the threads; 0 runs closed-loop.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public BenchmarkOptions setRate(double rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Negative rate: " + rate);
+        }
+        this.rate = rate;
+        return this;
+    }
+
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    public BenchmarkOptions setThreadFactory(ThreadFactory threadFactory) {
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("Null thread factory");
+        }
+        this.threadFactory = threadFactory;
+        return this;
+    }
+
+    public BenchmarkOptions copy() {
+        try {
+            return (BenchmarkOptions) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
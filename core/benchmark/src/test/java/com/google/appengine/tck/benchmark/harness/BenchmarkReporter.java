@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Writes benchmark results as JSON files into results directory, or logs them if there is none.
+ * <p/>
+ * Each result goes into its own [id].json file, so runs of different benchmarks don't clash;
+ * results of different environments go into different directories, see BenchmarkTestBase.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BenchmarkReporter {
+    private static final Logger log = Logger.getLogger(BenchmarkReporter.class.getName());
+
+    private final File directory;
+
+    public BenchmarkReporter() {
+        this(null);
+    }
+
+    public BenchmarkReporter(File directory) {
+        this.directory = directory;
+    }
+
+    public void write(JSONObject json) throws IOException {
+        final String content;
+        try {
+            content = json.toString(2);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (directory == null) {
+            log.info(String.format(">>>> JSON %s", content));
+            return;
+        }
+
+        if (directory.exists() == false && directory.mkdirs() == false) {
+            throw new IOException("Cannot create directory: " + directory);
+        }
+        File file = new File(directory, toFileName(json.optString("id")));
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            writer.write(content);
+        }
+        log.info(String.format(">>>> Benchmark result written to %s", file));
+    }
+
+    /**
+     * Deletes all results in the directory, e.g. those of a previous run.
+     */
+    public void clean() throws IOException {
+        File[] files = (directory != null) ? directory.listFiles() : null;
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".json") && file.delete() == false) {
+                throw new IOException("Cannot delete previous result: " + file);
+            }
+        }
+    }
+
+    static String toFileName(String id) {
+        return id.replaceAll("[^A-Za-z0-9._=-]", "_") + ".json";
+    }
+}
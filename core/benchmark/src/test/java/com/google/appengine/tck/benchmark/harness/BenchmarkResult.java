@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Result of a single benchmark run.
+ * <p/>
+ * Throughput is reported in ops/s per measurement iteration,
+ * latency is recorded per invocation in nanos and reported in micros.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BenchmarkResult {
+    public static final String THROUGHPUT_UNIT = "ops/s";
+    public static final String LATENCY_UNIT = "us";
+
+    private final String name;
+    private final Map<String, String> params;
+    private final BenchmarkOptions options;
+    private final Statistics throughput;
+    private final Histogram latency;
+    private final long operations;
+    private final long timestamp;
+    private final Map<String, Double> metrics = new LinkedHashMap<>();
+    private String environment;
+
+    public BenchmarkResult(String name, Map<String, String> params, BenchmarkOptions options, double[] throughput, Histogram latency, long operations) {
+        this.name = name;
+        this.params = Collections.unmodifiableMap(new LinkedHashMap<>(params));
+        this.options = options;
+        this.throughput = new Statistics(throughput);
+        this.latency = latency;
+        this.operations = operations;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    /**
+     * Unique id of the benchmark, name plus params.
+     *
+     * @return the id
+     */
+    public String getId() {
+        StringBuilder builder = new StringBuilder(name);
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            builder.append(",").append(entry.getKey()).append("=").append(entry.getValue());
+        }
+        return builder.toString();
+    }
+
+    public BenchmarkOptions getOptions() {
+        return options;
+    }
+
+    public Statistics getThroughput() {
+        return throughput;
+    }
+
+    public double getScore() {
+        return throughput.getMean();
+    }
+
+    public double getScoreError() {
+        return throughput.getError();
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Latency at percentile.
+     *
+     * @param percentile the percentile, e.g. 99.9
+     * @return latency in micros
+     */
+    public double getLatencyAt(double percentile) {
+        return toMicros(latency.getValueAtPercentile(percentile));
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<String, Double> getMetrics() {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * Additional benchmark specific metric, e.g. conflict rate or peak memory.
+     *
+     * @param name the metric name, including the unit if any
+     * @param value the value
+     * @return this result
+     */
+    public BenchmarkResult addMetric(String name, double value) {
+        metrics.put(name, value);
+        return this;
+    }
+
+    public String getEnvironment() {
+        return environment;
+    }
+
+    public void setEnvironment(String environment) {
+        this.environment = environment;
+    }
+
+    public JSONObject toJSON() {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("benchmark", name);
+            json.put("id", getId());
+            json.put("params", new JSONObject(params));
+            json.put("environment", environment);
+            json.put("timestamp", timestamp);
+
+            JSONObject opts = new JSONObject();
+            opts.put("warmupIterations", options.getWarmupIterations());
+            opts.put("measurementIterations", options.getMeasurementIterations());
+            opts.put("iterationTime", options.getIterationTime());
+            opts.put("invocations", options.getInvocations());
+            opts.put("threads", options.getThreads());
+            opts.put("operationsPerInvocation", options.getOperationsPerInvocation());
+            opts.put("rate", options.getRate());
+            json.put("options", opts);
+
+            JSONObject primary = new JSONObject();
+            primary.put("unit", THROUGHPUT_UNIT);
+            putDouble(primary, "score", throughput.getMean());
+            putDouble(primary, "error", throughput.getError());
+            putDouble(primary, "stdev", throughput.getStandardDeviation());
+            putDouble(primary, "min", throughput.getMin());
+            putDouble(primary, "max", throughput.getMax());
+            JSONArray samples = new JSONArray();
+            for (double sample : throughput.getSamples()) {
+                samples.put(sample);
+            }
+            primary.put("samples", samples);
+            json.put("throughput", primary);
+
+            JSONObject secondary = new JSONObject();
+            secondary.put("unit", LATENCY_UNIT);
+            secondary.put("count", latency.getTotalCount());
+            putDouble(secondary, "mean", latency.getMean() / 1000.0);
+            putDouble(secondary, "p50", getLatencyAt(50.0));
+            putDouble(secondary, "p90", getLatencyAt(90.0));
+            putDouble(secondary, "p99", getLatencyAt(99.0));
+            putDouble(secondary, "p99.9", getLatencyAt(99.9));
+            putDouble(secondary, "max", toMicros(latency.getMaxValue()));
+            json.put("latency", secondary);
+
+            json.put("operations", operations);
+
+            JSONObject additional = new JSONObject();
+            for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+                putDouble(additional, entry.getKey(), entry.getValue());
+            }
+            json.put("metrics", additional);
+            return json;
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        String result = String.format("%s %.3f +- %.3f %s [p50 = %.1f, p99 = %.1f, p99.9 = %.1f %s]",
+            getId(), getScore(), getScoreError(), THROUGHPUT_UNIT, getLatencyAt(50.0), getLatencyAt(99.0), getLatencyAt(99.9), LATENCY_UNIT);
+        return metrics.isEmpty() ? result : result + " " + metrics;
+    }
+
+    private static double toMicros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    // JSON does not allow NaN, e.g. error with a single measurement iteration
+    private static void putDouble(JSONObject json, String key, double value) throws JSONException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            json.put(key, JSONObject.NULL);
+        } else {
+            json.put(key, value);
+        }
+    }
+}
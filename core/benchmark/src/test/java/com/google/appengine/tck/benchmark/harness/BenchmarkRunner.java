@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Runs warmup and measurement iterations of a benchmark operation.
+ * <p/>
+ * Warmup iterations are executed and thrown away, measurement iterations
+ * each contribute one throughput sample and their invocation latencies.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BenchmarkRunner {
+    private static final Logger log = Logger.getLogger(BenchmarkRunner.class.getName());
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final BenchmarkOptions options;
+
+    public BenchmarkRunner(BenchmarkOptions options) {
+        this.options = options.copy();
+    }
+
+    protected BenchmarkOptions getOptions() {
+        return options;
+    }
+
+    public BenchmarkResult run(String name, BenchmarkOperation operation) throws Exception {
+        return run(name, Collections.<String, String>emptyMap(), operation);
+    }
+
+    public BenchmarkResult run(String name, Map<String, String> params, BenchmarkOperation operation) throws Exception {
+        for (int i = 0; i < options.getWarmupIterations(); i++) {
+            Iteration iteration = runIteration(operation);
+            log.info(String.format("# Warmup Iteration %d: %.3f %s", i + 1, iteration.throughput(), BenchmarkResult.THROUGHPUT_UNIT));
+        }
+
+        double[] throughput = new double[options.getMeasurementIterations()];
+        Histogram latency = new Histogram(SIGNIFICANT_DIGITS);
+        long operations = 0;
+        for (int i = 0; i < throughput.length; i++) {
+            Iteration iteration = runIteration(operation);
+            throughput[i] = iteration.throughput();
+            latency.add(iteration.latency);
+            operations += iteration.operations;
+            log.info(String.format("Iteration %d: %.3f %s", i + 1, throughput[i], BenchmarkResult.THROUGHPUT_UNIT));
+        }
+
+        return new BenchmarkResult(name, params, options, throughput, latency, operations);
+    }
+
+    protected Iteration runIteration(BenchmarkOperation operation) throws Exception {
+        if (options.getThreads() == 1) {
+            long start = System.nanoTime();
+            Worker worker = new Worker(operation, start, null, null);
+            worker.work();
+            return new Iteration(worker.invocations * options.getOperationsPerInvocation(), System.nanoTime() - start, worker.latency);
+        }
+
+        final CountDownLatch done = new CountDownLatch(options.getThreads());
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Worker> workers = new ArrayList<>();
+        final long start = System.nanoTime();
+        for (int i = 0; i < options.getThreads(); i++) {
+            Worker worker = new Worker(operation, start, done, failure);
+            workers.add(worker);
+            options.getThreadFactory().newThread(worker).start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Throwable t = failure.get();
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+
+        long invocations = 0;
+        Histogram latency = new Histogram(SIGNIFICANT_DIGITS);
+        for (Worker worker : workers) {
+            invocations += worker.invocations;
+            latency.add(worker.latency);
+        }
+        return new Iteration(invocations * options.getOperationsPerInvocation(), elapsed, latency);
+    }
+
+    protected static class Iteration {
+        private final long operations;
+        private final long elapsed;
+        private final Histogram latency;
+
+        protected Iteration(long operations, long elapsed, Histogram latency) {
+            this.operations = operations;
+            this.elapsed = elapsed;
+            this.latency = latency;
+        }
+
+        protected double throughput() {
+            return operations * 1e9 / elapsed;
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final BenchmarkOperation operation;
+        private final long start;
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure;
+        private final Histogram latency = new Histogram(SIGNIFICANT_DIGITS);
+        private long invocations;
+
+        private Worker(BenchmarkOperation operation, long start, CountDownLatch done, AtomicReference<Throwable> failure) {
+            this.operation = operation;
+            this.start = start;
+            this.done = done;
+            this.failure = failure;
+        }
+
+        private boolean isDone(long now) {
+            if (options.getInvocations() > 0) {
+                return invocations >= options.getInvocations();
+            } else {
+                return (now - start) >= options.getIterationTime() * 1000000L;
+            }
+        }
+
+        private void work() throws Exception {
+            long now;
+            do {
+                long before = System.nanoTime();
+                operation.invoke();
+                now = System.nanoTime();
+                latency.recordValue(now - before);
+                invocations++;
+            } while (isDone(now) == false && (failure == null || failure.get() == null));
+        }
+
+        public void run() {
+            try {
+                work();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
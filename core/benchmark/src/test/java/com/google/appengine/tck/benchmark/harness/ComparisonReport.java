@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.json.JSONObject;
+
+/**
+ * Side-by-side comparison of the same benchmarks across environments, e.g. SDK, CapeDwarf, appspot and gcloud.
+ * <p/>
+ * Results are matched by id, i.e. benchmark name plus params, and grouped per benchmark name (operation).
+ * Throughput and p99 latency are normalized against the reference environment,
+ * so 2.00x throughput means twice the reference's ops/s, 0.50x latency half of its p99.
+ * Only results with the same id are compared, so all environments should run with the same benchmark.* settings.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ComparisonReport {
+    private static final String[] COLORS = {"#4285f4", "#db4437", "#f4b400", "#0f9d58", "#ab47bc", "#00acc1"};
+    private static final int BAR_HEIGHT = 14;
+    private static final int BAR_WIDTH = 400;
+    private static final int LABEL_WIDTH = 320;
+
+    private final String reference;
+    private final Map<String, Map<String, JSONObject>> results = new LinkedHashMap<>();
+
+    public ComparisonReport(String reference) {
+        this.reference = reference;
+    }
+
+    /**
+     * Adds the results of one environment, environments are reported in the order they were added.
+     */
+    public ComparisonReport add(String environment, Map<String, JSONObject> byId) {
+        results.put(environment, byId);
+        return this;
+    }
+
+    public List<String> getEnvironments() {
+        return new ArrayList<>(results.keySet());
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    public void writeTable(PrintWriter writer) {
+        List<String> environments = getEnvironments();
+        writer.printf("Benchmark comparison, reference %s%n", reference);
+        for (Map.Entry<String, Map<String, String>> operation : getOperations().entrySet()) {
+            writer.printf("%n%s%n", operation.getKey());
+            writer.printf("%-40s", "params");
+            for (String environment : environments) {
+                writer.printf(" | %-34s", environment + " ops/s (x), p99 us (x)");
+            }
+            writer.println();
+            for (Map.Entry<String, String> row : operation.getValue().entrySet()) {
+                writer.printf("%-40s", row.getKey().isEmpty() ? "-" : row.getKey());
+                for (String environment : environments) {
+                    JSONObject json = results.get(environment).get(row.getValue());
+                    if (json == null) {
+                        writer.printf(" | %-34s", "n/a");
+                    } else {
+                        String cell = String.format("%.1f (%s), %.1f (%s)",
+                            getThroughput(json), format(getThroughputRatio(environment, row.getValue())),
+                            getLatency(json), format(getLatencyRatio(environment, row.getValue())));
+                        writer.printf(" | %-34s", cell);
+                    }
+                }
+                writer.println();
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Self-contained HTML, one table and bar chart of normalized throughput per operation.
+     */
+    public void writeHtml(PrintWriter writer) {
+        List<String> environments = getEnvironments();
+        writer.println("<!DOCTYPE html>");
+        writer.println("<html><head><meta charset=\"UTF-8\"><title>Benchmark comparison</title>");
+        writer.println("<style>body{font-family:sans-serif}table{border-collapse:collapse}td,th{border:1px solid #ccc;padding:2px 6px;text-align:right}"
+            + "td.params{text-align:left}.slower{color:#db4437}.faster{color:#0f9d58}</style>");
+        writer.println("</head><body>");
+        writer.printf("<h1>Benchmark comparison</h1><p>Reference: %s. Ratios are throughput and p99 latency relative to the reference.</p>%n", escape(reference));
+        writer.print("<p>");
+        for (int i = 0; i < environments.size(); i++) {
+            writer.printf("<span style=\"color:%s\">&#9632; %s</span> ", color(i), escape(environments.get(i)));
+        }
+        writer.println("</p>");
+        for (Map.Entry<String, Map<String, String>> operation : getOperations().entrySet()) {
+            writer.printf("<h2>%s</h2>%n", escape(operation.getKey()));
+            writeHtmlTable(writer, environments, operation.getValue());
+            writeHtmlChart(writer, environments, operation.getValue());
+        }
+        writer.println("</body></html>");
+        writer.flush();
+    }
+
+    private void writeHtmlTable(PrintWriter writer, List<String> environments, Map<String, String> rows) {
+        writer.print("<table><tr><th>params</th>");
+        for (String environment : environments) {
+            writer.printf("<th>%1$s ops/s</th><th>x</th><th>%1$s p99 us</th><th>x</th>", escape(environment));
+        }
+        writer.println("</tr>");
+        for (Map.Entry<String, String> row : rows.entrySet()) {
+            writer.printf("<tr><td class=\"params\">%s</td>", escape(row.getKey()));
+            for (String environment : environments) {
+                JSONObject json = results.get(environment).get(row.getValue());
+                if (json == null) {
+                    writer.print("<td colspan=\"4\">n/a</td>");
+                } else {
+                    double throughputRatio = getThroughputRatio(environment, row.getValue());
+                    double latencyRatio = getLatencyRatio(environment, row.getValue());
+                    writer.printf("<td>%.1f</td><td class=\"%s\">%s</td><td>%.1f</td><td class=\"%s\">%s</td>",
+                        getThroughput(json), style(throughputRatio), format(throughputRatio),
+                        getLatency(json), style(1 / latencyRatio), format(latencyRatio));
+                }
+            }
+            writer.println("</tr>");
+        }
+        writer.println("</table>");
+    }
+
+    private void writeHtmlChart(PrintWriter writer, List<String> environments, Map<String, String> rows) {
+        double max = 1;
+        for (String id : rows.values()) {
+            for (String environment : environments) {
+                double ratio = getThroughputRatio(environment, id);
+                if (isValid(ratio)) {
+                    max = Math.max(max, ratio);
+                }
+            }
+        }
+        int rowHeight = environments.size() * BAR_HEIGHT + 8;
+        int height = rows.size() * rowHeight + 20;
+        int referenceX = LABEL_WIDTH + (int) (BAR_WIDTH / max);
+        writer.printf("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%s\" height=\"%s\" font-size=\"11\">%n", LABEL_WIDTH + BAR_WIDTH + 60, height);
+        int y = 0;
+        for (Map.Entry<String, String> row : rows.entrySet()) {
+            writer.printf("<text x=\"0\" y=\"%s\">%s</text>%n", y + rowHeight / 2, escape(row.getKey()));
+            for (int i = 0; i < environments.size(); i++) {
+                double ratio = getThroughputRatio(environments.get(i), row.getValue());
+                if (isValid(ratio)) {
+                    int width = (int) Math.max(1, BAR_WIDTH * ratio / max);
+                    int barY = y + i * BAR_HEIGHT;
+                    writer.printf("<rect x=\"%s\" y=\"%s\" width=\"%s\" height=\"%s\" fill=\"%s\"><title>%s %s</title></rect>",
+                        LABEL_WIDTH, barY, width, BAR_HEIGHT - 2, color(i), escape(environments.get(i)), format(ratio));
+                    writer.printf("<text x=\"%s\" y=\"%s\">%s</text>%n", LABEL_WIDTH + width + 4, barY + BAR_HEIGHT - 4, format(ratio));
+                }
+            }
+            y += rowHeight;
+        }
+        writer.printf("<line x1=\"%1$s\" y1=\"0\" x2=\"%1$s\" y2=\"%2$s\" stroke=\"#000\" stroke-dasharray=\"4\"/>%n", referenceX, y);
+        writer.printf("<text x=\"%s\" y=\"%s\">%s = 1x throughput</text>%n", referenceX + 4, y + 14, escape(reference));
+        writer.println("</svg>");
+    }
+
+    /**
+     * Operation name to its rows, params string to result id, across all environments.
+     */
+    protected Map<String, Map<String, String>> getOperations() {
+        Map<String, Map<String, String>> operations = new TreeMap<>();
+        TreeSet<String> ids = new TreeSet<>();
+        for (Map<String, JSONObject> byId : results.values()) {
+            ids.addAll(byId.keySet());
+        }
+        for (String id : ids) {
+            JSONObject json = find(id);
+            String name = json.optString("benchmark", id);
+            Map<String, String> rows = operations.get(name);
+            if (rows == null) {
+                rows = new TreeMap<>();
+                operations.put(name, rows);
+            }
+            rows.put(id.startsWith(name + ",") ? id.substring(name.length() + 1) : "", id);
+        }
+        return operations;
+    }
+
+    protected double getThroughputRatio(String environment, String id) {
+        return ratio(environment, id, true);
+    }
+
+    protected double getLatencyRatio(String environment, String id) {
+        return ratio(environment, id, false);
+    }
+
+    private double ratio(String environment, String id, boolean throughput) {
+        Map<String, JSONObject> base = results.get(reference);
+        JSONObject json = results.get(environment).get(id);
+        JSONObject baseJson = (base != null) ? base.get(id) : null;
+        if (json == null || baseJson == null) {
+            return Double.NaN;
+        }
+        return throughput ? getThroughput(json) / getThroughput(baseJson) : getLatency(json) / getLatency(baseJson);
+    }
+
+    private JSONObject find(String id) {
+        for (Map<String, JSONObject> byId : results.values()) {
+            JSONObject json = byId.get(id);
+            if (json != null) {
+                return json;
+            }
+        }
+        throw new IllegalArgumentException("No result: " + id);
+    }
+
+    private static double getThroughput(JSONObject json) {
+        JSONObject throughput = json.optJSONObject("throughput");
+        return (throughput != null) ? throughput.optDouble("score") : Double.NaN;
+    }
+
+    private static double getLatency(JSONObject json) {
+        JSONObject latency = json.optJSONObject("latency");
+        return (latency != null) ? latency.optDouble("p99") : Double.NaN;
+    }
+
+    private static boolean isValid(double ratio) {
+        return Double.isNaN(ratio) == false && Double.isInfinite(ratio) == false;
+    }
+
+    private static String format(double ratio) {
+        return isValid(ratio) ? String.format("%.2fx", ratio) : "-";
+    }
+
+    // within 5% of the reference is not colored
+    private static String style(double ratio) {
+        if (isValid(ratio) == false || Math.abs(ratio - 1) < 0.05) {
+            return "same";
+        }
+        return ratio > 1 ? "faster" : "slower";
+    }
+
+    private static String color(int index) {
+        return COLORS[index % COLORS.length];
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import java.util.Arrays;
+
+/**
+ * Mann-Whitney U test, whether one sample tends to be smaller than the other,
+ * e.g. per-iteration throughput of a build against its baseline.
+ * <p/>
+ * Exact p-values for small samples without ties, which is what a handful of measurement iterations gives,
+ * otherwise the normal approximation with tie and continuity correction.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class MannWhitney {
+    // n1 * n2 up to which the exact distribution of U is counted
+    private static final int MAX_EXACT = 400;
+
+    private MannWhitney() {
+    }
+
+    /**
+     * U statistic of x, the number of (x, y) pairs where x is greater, ties count half.
+     */
+    public static double u(double[] x, double[] y) {
+        double u = 0;
+        for (double xi : x) {
+            for (double yj : y) {
+                if (xi > yj) {
+                    u += 1;
+                } else if (xi == yj) {
+                    u += 0.5;
+                }
+            }
+        }
+        return u;
+    }
+
+    /**
+     * One-sided p-value of the hypothesis that x tends to be smaller than y.
+     *
+     * @return the p-value, or NaN if either sample is empty
+     */
+    public static double pLess(double[] x, double[] y) {
+        int n1 = x.length;
+        int n2 = y.length;
+        if (n1 == 0 || n2 == 0) {
+            return Double.NaN;
+        }
+        double u = u(x, y);
+        if (n1 * n2 <= MAX_EXACT && hasTies(x, y) == false) {
+            return exactCdf(n1, n2, (int) u);
+        }
+        return normalCdf(x, y, u);
+    }
+
+    /**
+     * P(U <= u) over all arrangements of n1 x's and n2 y's, counted with
+     * f(i, j, u) = f(i - 1, j, u - j) + f(i, j - 1, u), depending on whether the greatest value is an x or a y.
+     */
+    static double exactCdf(int n1, int n2, int u) {
+        int max = n1 * n2;
+        double[][][] f = new double[n1 + 1][n2 + 1][max + 1];
+        for (int i = 0; i <= n1; i++) {
+            for (int j = 0; j <= n2; j++) {
+                if (i == 0 || j == 0) {
+                    f[i][j][0] = 1;
+                    continue;
+                }
+                for (int k = 0; k <= i * j; k++) {
+                    double count = f[i][j - 1][k];
+                    if (k >= j) {
+                        count += f[i - 1][j][k - j];
+                    }
+                    f[i][j][k] = count;
+                }
+            }
+        }
+        double below = 0;
+        double total = 0;
+        for (int k = 0; k <= max; k++) {
+            total += f[n1][n2][k];
+            if (k <= u) {
+                below += f[n1][n2][k];
+            }
+        }
+        return below / total;
+    }
+
+    private static double normalCdf(double[] x, double[] y, double u) {
+        int n1 = x.length;
+        int n2 = y.length;
+        int n = n1 + n2;
+        double[] all = new double[n];
+        System.arraycopy(x, 0, all, 0, n1);
+        System.arraycopy(y, 0, all, n1, n2);
+        Arrays.sort(all);
+        double ties = 0;
+        for (int i = 0; i < n; ) {
+            int j = i;
+            while (j < n && all[j] == all[i]) {
+                j++;
+            }
+            double t = j - i;
+            ties += t * t * t - t;
+            i = j;
+        }
+        double mean = n1 * n2 / 2.0;
+        double variance = n1 * n2 / 12.0 * ((n + 1) - ties / (n * (n - 1.0)));
+        if (variance <= 0) {
+            return 1.0; // all values are the same
+        }
+        double z = (u - mean + 0.5) / Math.sqrt(variance);
+        return phi(z);
+    }
+
+    private static boolean hasTies(double[] x, double[] y) {
+        for (double xi : x) {
+            for (double yj : y) {
+                if (xi == yj) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // standard normal cdf, Abramowitz and Stegun 7.1.26 for erf
+    private static double phi(double z) {
+        double t = 1.0 / (1.0 + 0.3275911 * Math.abs(z) / Math.sqrt(2));
+        double poly = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))));
+        double erf = 1.0 - poly * Math.exp(-z * z / 2);
+        return (z >= 0) ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+}
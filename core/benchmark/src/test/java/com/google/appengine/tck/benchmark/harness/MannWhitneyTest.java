@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Plain unit test, runs without a container.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MannWhitneyTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testU() {
+        Assert.assertEquals(0.0, MannWhitney.u(new double[]{1, 2}, new double[]{3, 4}), DELTA);
+        Assert.assertEquals(4.0, MannWhitney.u(new double[]{3, 4}, new double[]{1, 2}), DELTA);
+        Assert.assertEquals(2.5, MannWhitney.u(new double[]{1, 2, 2, 3}, new double[]{2, 3, 4, 5}), DELTA);
+    }
+
+    /**
+     * n1 = n2 = 4, 70 arrangements, U counts 1, 1, 2, 3, 5, 5, 7, 7, 8, 7, 7, 5, 5, 3, 2, 1, 1.
+     */
+    @Test
+    public void testExactCdf() {
+        Assert.assertEquals(1 / 70.0, MannWhitney.exactCdf(4, 4, 0), DELTA);
+        Assert.assertEquals(2 / 70.0, MannWhitney.exactCdf(4, 4, 1), DELTA);
+        Assert.assertEquals(4 / 70.0, MannWhitney.exactCdf(4, 4, 2), DELTA);
+        Assert.assertEquals(7 / 70.0, MannWhitney.exactCdf(4, 4, 3), DELTA);
+        Assert.assertEquals(39 / 70.0, MannWhitney.exactCdf(4, 4, 8), DELTA);
+        Assert.assertEquals(1.0, MannWhitney.exactCdf(4, 4, 16), DELTA);
+        // n1 = 3, n2 = 5, 56 arrangements
+        Assert.assertEquals(2 / 56.0, MannWhitney.exactCdf(3, 5, 1), DELTA);
+    }
+
+    @Test
+    public void testExact() {
+        double[] smaller = {1, 2, 3, 4};
+        double[] greater = {5, 6, 7, 8};
+        Assert.assertEquals(1 / 70.0, MannWhitney.pLess(smaller, greater), DELTA);
+        Assert.assertEquals(1.0, MannWhitney.pLess(greater, smaller), DELTA);
+    }
+
+    @Test
+    public void testTies() {
+        // U = 2.5, 8 values in 5 tie groups, z = -1.48835
+        Assert.assertEquals(0.068329, MannWhitney.pLess(new double[]{1, 2, 2, 3}, new double[]{2, 3, 4, 5}), 1e-5);
+        Assert.assertEquals(1.0, MannWhitney.pLess(new double[]{1, 1, 1}, new double[]{1, 1, 1}), DELTA);
+    }
+
+    @Test
+    public void testEmpty() {
+        Assert.assertTrue(Double.isNaN(MannWhitney.pLess(new double[0], new double[]{1, 2})));
+        Assert.assertTrue(Double.isNaN(MannWhitney.pLess(new double[]{1, 2}, new double[0])));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Runs a benchmark operation open-loop, at the options' target rate.
+ * <p/>
+ * Invocations arrive with exponential inter-arrival times (a Poisson process), whether or not earlier ones completed,
+ * and are executed by the options' threads; arrivals which find all threads busy wait in line.
+ * Latency is recorded from the intended arrival time, so waiting in line counts, which corrects
+ * for coordinated omission; service time from the actual start and the time in line are added as metrics.
+ * Arrivals stop after the iteration time, or after invocations times threads arrivals if invocations are set,
+ * and the backlog still runs, so throughput falls below the target rate once the threads are saturated.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class OpenLoopRunner extends BenchmarkRunner {
+    private static final long STOP = Long.MIN_VALUE;
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double MICROS = 1000.0;
+
+    private final Histogram service = new Histogram(SIGNIFICANT_DIGITS);
+    private final Histogram waiting = new Histogram(SIGNIFICANT_DIGITS);
+    private final Random random = new Random();
+    private int iterations;
+
+    public OpenLoopRunner(BenchmarkOptions options) {
+        super(options);
+        if (options.getRate() <= 0) {
+            throw new IllegalArgumentException("Open-loop runs need a positive rate: " + options.getRate());
+        }
+    }
+
+    @Override
+    public BenchmarkResult run(String name, Map<String, String> params, BenchmarkOperation operation) throws Exception {
+        iterations = 0;
+        service.reset();
+        waiting.reset();
+        BenchmarkResult result = super.run(name, params, operation);
+        result.addMetric("rate.target", getOptions().getRate());
+        result.addMetric("service.p50.us", service.getValueAtPercentile(50) / MICROS);
+        result.addMetric("service.p99.us", service.getValueAtPercentile(99) / MICROS);
+        result.addMetric("wait.p50.us", waiting.getValueAtPercentile(50) / MICROS);
+        return result.addMetric("wait.p99.us", waiting.getValueAtPercentile(99) / MICROS);
+    }
+
+    @Override
+    protected Iteration runIteration(BenchmarkOperation operation) throws Exception {
+        BenchmarkOptions options = getOptions();
+        boolean measured = ++iterations > options.getWarmupIterations();
+        BlockingQueue<Long> arrivals = new LinkedBlockingQueue<>();
+        CountDownLatch done = new CountDownLatch(options.getThreads());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Caller> callers = new ArrayList<>();
+        for (int i = 0; i < options.getThreads(); i++) {
+            Caller caller = new Caller(operation, arrivals, done, failure);
+            callers.add(caller);
+            options.getThreadFactory().newThread(caller).start();
+        }
+
+        long start = System.nanoTime();
+        long end = start + options.getIterationTime() * 1000000L;
+        double interval = 1e9 / options.getRate();
+        long total = (long) options.getInvocations() * options.getThreads();
+        long next = start;
+        try {
+            for (long count = 0; failure.get() == null; count++) {
+                next += (long) (-Math.log(1 - random.nextDouble()) * interval);
+                if ((total > 0) ? count >= total : next >= end) {
+                    break;
+                }
+                long delay;
+                while ((delay = next - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                arrivals.add(next);
+            }
+        } finally {
+            // behind the backlog, so it still runs
+            for (int i = 0; i < options.getThreads(); i++) {
+                arrivals.add(STOP);
+            }
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Throwable t = failure.get();
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+
+        long invocations = 0;
+        Histogram latency = new Histogram(SIGNIFICANT_DIGITS);
+        for (Caller caller : callers) {
+            invocations += caller.invocations;
+            latency.add(caller.latency);
+            if (measured) {
+                service.add(caller.service);
+                waiting.add(caller.waiting);
+            }
+        }
+        return new Iteration(invocations * options.getOperationsPerInvocation(), elapsed, latency);
+    }
+
+    private static class Caller implements Runnable {
+        private final BenchmarkOperation operation;
+        private final BlockingQueue<Long> arrivals;
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure;
+        private final Histogram latency = new Histogram(SIGNIFICANT_DIGITS);
+        private final Histogram service = new Histogram(SIGNIFICANT_DIGITS);
+        private final Histogram waiting = new Histogram(SIGNIFICANT_DIGITS);
+        private long invocations;
+
+        private Caller(BenchmarkOperation operation, BlockingQueue<Long> arrivals, CountDownLatch done, AtomicReference<Throwable> failure) {
+            this.operation = operation;
+            this.arrivals = arrivals;
+            this.done = done;
+            this.failure = failure;
+        }
+
+        public void run() {
+            try {
+                while (failure.get() == null) {
+                    long intended = arrivals.take();
+                    if (intended == STOP) {
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    operation.invoke();
+                    long now = System.nanoTime();
+                    latency.recordValue(now - intended);
+                    service.recordValue(now - start);
+                    waiting.recordValue(Math.max(0, start - intended));
+                    invocations++;
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
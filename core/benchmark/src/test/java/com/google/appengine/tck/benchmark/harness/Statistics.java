@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import java.util.Arrays;
+
+/**
+ * Summary statistics over per-iteration samples.
+ * <p/>
+ * The error is the half-width of the 99.9% confidence interval of the mean,
+ * same as JMH reports it next to the score.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class Statistics {
+    // two-sided 99.9% Student t quantiles (t[0.9995]) for 1..30 degrees of freedom
+    private static final double[] T_999 = {
+        636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+        4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+        3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646
+    };
+
+    private final double[] samples;
+
+    public Statistics(double[] samples) {
+        this.samples = Arrays.copyOf(samples, samples.length);
+    }
+
+    public int getN() {
+        return samples.length;
+    }
+
+    public double[] getSamples() {
+        return Arrays.copyOf(samples, samples.length);
+    }
+
+    public double getMean() {
+        if (samples.length == 0) {
+            return Double.NaN;
+        }
+        double sum = 0;
+        for (double sample : samples) {
+            sum += sample;
+        }
+        return sum / samples.length;
+    }
+
+    public double getVariance() {
+        if (samples.length < 2) {
+            return Double.NaN;
+        }
+        double mean = getMean();
+        double sum = 0;
+        for (double sample : samples) {
+            sum += (sample - mean) * (sample - mean);
+        }
+        return sum / (samples.length - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public double getMin() {
+        double min = Double.NaN;
+        for (double sample : samples) {
+            if (Double.isNaN(min) || sample < min) {
+                min = sample;
+            }
+        }
+        return min;
+    }
+
+    public double getMax() {
+        double max = Double.NaN;
+        for (double sample : samples) {
+            if (Double.isNaN(max) || sample > max) {
+                max = sample;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Half-width of the 99.9% confidence interval of the mean.
+     *
+     * @return the error, or NaN if there are less than two samples
+     */
+    public double getError() {
+        if (samples.length < 2) {
+            return Double.NaN;
+        }
+        return tQuantile(samples.length - 1) * getStandardDeviation() / Math.sqrt(samples.length);
+    }
+
+    // past the table we round df down to 30 / 40 / 60 / 120, which keeps the interval on the safe side
+    static double tQuantile(int df) {
+        if (df <= T_999.length) {
+            return T_999[df - 1];
+        } else if (df < 40) {
+            return T_999[T_999.length - 1];
+        } else if (df < 60) {
+            return 3.551;
+        } else if (df < 120) {
+            return 3.460;
+        } else {
+            return 3.373;
+        }
+    }
+}
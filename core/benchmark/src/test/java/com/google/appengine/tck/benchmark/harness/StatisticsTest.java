@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Plain unit test, runs without a container.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class StatisticsTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testSummary() {
+        Statistics statistics = new Statistics(new double[]{2, 4, 4, 4, 5, 5, 7, 9});
+        Assert.assertEquals(8, statistics.getN());
+        Assert.assertEquals(5.0, statistics.getMean(), DELTA);
+        Assert.assertEquals(32 / 7.0, statistics.getVariance(), DELTA);
+        Assert.assertEquals(2.0, statistics.getMin(), DELTA);
+        Assert.assertEquals(9.0, statistics.getMax(), DELTA);
+        // t[0.9995] with 7 degrees of freedom
+        Assert.assertEquals(5.408 * Math.sqrt(32 / 7.0) / Math.sqrt(8), statistics.getError(), DELTA);
+    }
+
+    @Test
+    public void testTQuantile() {
+        Assert.assertEquals(636.619, Statistics.tQuantile(1), DELTA);
+        Assert.assertEquals(3.646, Statistics.tQuantile(30), DELTA);
+        Assert.assertEquals(3.646, Statistics.tQuantile(35), DELTA);
+        Assert.assertEquals(3.551, Statistics.tQuantile(40), DELTA);
+        Assert.assertEquals(3.373, Statistics.tQuantile(1000), DELTA);
+    }
+
+    @Test
+    public void testTooFewSamples() {
+        Statistics empty = new Statistics(new double[0]);
+        Assert.assertTrue(Double.isNaN(empty.getMean()));
+        Assert.assertTrue(Double.isNaN(empty.getMin()));
+        Assert.assertTrue(Double.isNaN(empty.getMax()));
+        Statistics single = new Statistics(new double[]{3});
+        Assert.assertEquals(3.0, single.getMean(), DELTA);
+        Assert.assertTrue(Double.isNaN(single.getVariance()));
+        Assert.assertTrue(Double.isNaN(single.getError()));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.harness;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Zipfian ranks 0 .. size - 1, where rank k is drawn with probability proportional to 1 / (k + 1)^skew.
+ * <p/>
+ * The cumulative distribution is computed up front, so a draw is a binary search;
+ * skew 0 is uniform, around 1 is typical for cache workloads.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ZipfDistribution {
+    private final double[] cdf;
+
+    public ZipfDistribution(int size, double skew) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Size must be positive: " + size);
+        }
+        if (skew < 0) {
+            throw new IllegalArgumentException("Skew must not be negative: " + skew);
+        }
+        this.cdf = new double[size];
+        double sum = 0;
+        for (int k = 0; k < size; k++) {
+            sum += 1 / Math.pow(k + 1, skew);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < size; k++) {
+            cdf[k] /= sum;
+        }
+    }
+
+    public int size() {
+        return cdf.length;
+    }
+
+    public int next() {
+        return next(ThreadLocalRandom.current());
+    }
+
+    public int next(Random random) {
+        int i = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min((i >= 0) ? i : -i - 1, cdf.length - 1);
+    }
+}
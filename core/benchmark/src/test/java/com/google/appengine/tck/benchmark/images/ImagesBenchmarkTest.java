@@ -0,0 +1,321 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.images;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.api.images.Composite;
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.OutputSettings;
+import com.google.appengine.api.images.Transform;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * ImagesService applyTransform and composite throughput and memory use.
+ * <p/>
+ * The inputs are the capedwarf fixtures of the images tests, from their test-jar, the same picture in each of JPEG, PNG, GIF, BMP and TIFF;
+ * large inputs are the JPEG upscaled by benchmark.images.scales, re-encoded as JPEG and PNG.
+ * Every benchmark is run with each of benchmark.images.threads concurrent callers.
+ * <p/>
+ * Memory is reported per operation as pixel.bytes, the decoded size of the input and output images at 4 bytes per pixel,
+ * and as alloc.bytes, the bytes allocated by the calling thread over the measured invocations,
+ * where the JVM and the sandbox expose com.sun.management.ThreadMXBean; allocations of the service outside that thread are not included.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class ImagesBenchmarkTest extends BenchmarkTestBase {
+    private static final String[] FORMATS = {"jpg", "png", "gif", "bmp", "tif"};
+    private static final ImagesService.OutputEncoding[] LARGE_ENCODINGS = {ImagesService.OutputEncoding.JPEG, ImagesService.OutputEncoding.PNG};
+    private static final int MAX_DIMENSION = 4000;
+    private static final int MAX_LAYERS = 16;
+    private static final String FIXTURE = "testdata/capedwarf.";
+
+    protected enum TransformType {
+        RESIZE,
+        CROP,
+        ROTATE,
+        HORIZONTAL_FLIP,
+        VERTICAL_FLIP,
+        IM_FEELING_LUCKY,
+        COMPOSITE_TRANSFORM
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment();
+        for (String format : FORMATS) {
+            war.addAsResource(FIXTURE + format);
+        }
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testTransforms(@ArquillianResource URL url) throws Exception {
+        for (String format : FORMATS) {
+            if (Boolean.parseBoolean(invoke(url, "isSupported", format)) == false) {
+                continue;
+            }
+            for (TransformType type : TransformType.values()) {
+                for (int threads : getThreads()) {
+                    invoke(url, "benchmarkTransform", format, 1, type, threads);
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testLargeInputs(@ArquillianResource URL url) throws Exception {
+        for (int scale : getIntValues("benchmark.images.scales", "4,8")) {
+            for (ImagesService.OutputEncoding encoding : LARGE_ENCODINGS) {
+                for (TransformType type : TransformType.values()) {
+                    for (int threads : getThreads()) {
+                        invoke(url, "benchmarkTransform", encoding.name().toLowerCase(), scale, type, threads);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testComposite(@ArquillianResource URL url) throws Exception {
+        for (String format : FORMATS) {
+            if (Boolean.parseBoolean(invoke(url, "isSupported", format)) == false) {
+                continue;
+            }
+            for (int layers : getIntValues("benchmark.images.composite.layers", "1,4,16")) {
+                for (int threads : getThreads()) {
+                    invoke(url, "benchmarkComposite", format, layers, threads);
+                }
+            }
+        }
+    }
+
+    protected void benchmarkTransform(String format, int scale, TransformType type, int threads) throws Exception {
+        final byte[] data = readImage(format, scale);
+        final ImagesService service = ImagesServiceFactory.getImagesService();
+        Image image = ImagesServiceFactory.makeImage(data);
+        final Transform transform = createTransform(type, image.getWidth(), image.getHeight());
+        Image output = service.applyTransform(transform, ImagesServiceFactory.makeImage(data));
+        long pixelBytes = pixelBytes(image) + pixelBytes(output);
+        BenchmarkOptions options = getBenchmarkOptions().setThreads(threads);
+        Map<String, String> params = params("format", format, "scale", scale, "width", image.getWidth(), "height", image.getHeight(), "transform", type, "threads", threads);
+        Allocation allocation = new Allocation();
+        BenchmarkOperation operation = allocation.count(new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                // applyTransform replaces the image data, so every invocation needs its own image
+                Image transformed = service.applyTransform(transform, ImagesServiceFactory.makeImage(data));
+                Assert.assertTrue(transformed.getImageData().length > 0);
+            }
+        });
+        options = warmUp("images.transform", params, options, operation);
+        allocation.reset();
+        report(allocation.addTo(measure("images.transform", params, options, operation), pixelBytes));
+    }
+
+    protected void benchmarkComposite(String format, int layers, int threads) throws Exception {
+        if (layers < 1 || layers > MAX_LAYERS) {
+            throw new IllegalArgumentException("Layers must be between 1 and " + MAX_LAYERS + ": " + layers);
+        }
+        final byte[] data = readImage(format, 1);
+        final ImagesService service = ImagesServiceFactory.getImagesService();
+        Image image = ImagesServiceFactory.makeImage(data);
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int count = layers;
+        // every layer is decoded, and the canvas is twice the image size in both dimensions
+        long pixelBytes = (layers + 4) * pixelBytes(image);
+        BenchmarkOptions options = getBenchmarkOptions().setThreads(threads);
+        Map<String, String> params = params("format", format, "layers", layers, "threads", threads);
+        Allocation allocation = new Allocation();
+        BenchmarkOperation operation = allocation.count(new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                // layers are cascaded diagonally over a canvas twice the image size
+                List<Composite> composites = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int x = (count > 1) ? i * width / (count - 1) : 0;
+                    int y = (count > 1) ? i * height / (count - 1) : 0;
+                    composites.add(ImagesServiceFactory.makeComposite(ImagesServiceFactory.makeImage(data), x, y, 1f, Composite.Anchor.TOP_LEFT));
+                }
+                Image composed = service.composite(composites, 2 * width, 2 * height, 0);
+                Assert.assertTrue(composed.getImageData().length > 0);
+            }
+        });
+        options = warmUp("images.composite", params, options, operation);
+        allocation.reset();
+        report(allocation.addTo(measure("images.composite", params, options, operation), pixelBytes));
+    }
+
+    protected static Transform createTransform(TransformType type, int width, int height) {
+        switch (type) {
+            case RESIZE:
+                return ImagesServiceFactory.makeResize(Math.max(1, width / 2), Math.max(1, height / 2));
+            case CROP:
+                return ImagesServiceFactory.makeCrop(0.25, 0.25, 0.75, 0.75);
+            case ROTATE:
+                return ImagesServiceFactory.makeRotate(90);
+            case HORIZONTAL_FLIP:
+                return ImagesServiceFactory.makeHorizontalFlip();
+            case VERTICAL_FLIP:
+                return ImagesServiceFactory.makeVerticalFlip();
+            case IM_FEELING_LUCKY:
+                return ImagesServiceFactory.makeImFeelingLucky();
+            case COMPOSITE_TRANSFORM:
+                return ImagesServiceFactory.makeCompositeTransform()
+                    .concatenate(ImagesServiceFactory.makeCrop(0.1, 0.1, 0.9, 0.9))
+                    .concatenate(ImagesServiceFactory.makeRotate(90))
+                    .concatenate(ImagesServiceFactory.makeResize(Math.max(1, height / 2), Math.max(1, width / 2)));
+            default:
+                throw new IllegalArgumentException("Unknown transform type: " + type);
+        }
+    }
+
+    /**
+     * Not every environment reads every format, e.g. there is no TIFF reader in the SDK's JDK.
+     */
+    protected boolean isSupported(String format) throws IOException {
+        try {
+            ImagesServiceFactory.getImagesService().applyTransform(ImagesServiceFactory.makeRotate(0), ImagesServiceFactory.makeImage(readImage(format, 1)));
+            return true;
+        } catch (IllegalArgumentException e) {
+            log.warning(String.format("Skipping unsupported image format %s: %s", format, e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Upscales the image, capped by the maximum resize dimension.
+     */
+    protected static byte[] upscale(byte[] data, int scale, ImagesService.OutputEncoding encoding) {
+        Image image = ImagesServiceFactory.makeImage(data);
+        int width = Math.min(MAX_DIMENSION, image.getWidth() * scale);
+        int height = Math.min(MAX_DIMENSION, image.getHeight() * scale);
+        Transform resize = ImagesServiceFactory.makeResize(width, height, true);
+        return ImagesServiceFactory.getImagesService().applyTransform(resize, image, new OutputSettings(encoding)).getImageData();
+    }
+
+    /**
+     * The fixture of the given format, or the JPEG fixture upscaled and re-encoded as the given encoding.
+     */
+    protected byte[] readImage(String format, int scale) throws IOException {
+        if (scale == 1) {
+            return readImageBytes(FIXTURE + format);
+        }
+        return upscale(readImageBytes(FIXTURE + "jpg"), scale, ImagesService.OutputEncoding.valueOf(format.toUpperCase()));
+    }
+
+    protected byte[] readImageBytes(String resourceName) throws IOException {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream(resourceName)) {
+            if (is == null) {
+                throw new IOException("No such resource: " + resourceName);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[0x1000];
+            int r;
+            while ((r = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, r);
+            }
+            return baos.toByteArray();
+        }
+    }
+
+    private static int[] getThreads() {
+        return getIntValues("benchmark.images.threads", "1,4");
+    }
+
+    private static long pixelBytes(Image image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+
+    /**
+     * Bytes allocated by the invoking threads, around every invocation of the operation.
+     */
+    private static class Allocation {
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong invocations = new AtomicLong();
+        private final com.sun.management.ThreadMXBean bean = getThreadMXBean();
+
+        /**
+         * @return null if allocated bytes are not available, e.g. the sandbox doesn't allow java.lang.management
+         */
+        private static com.sun.management.ThreadMXBean getThreadMXBean() {
+            try {
+                ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+                if (bean instanceof com.sun.management.ThreadMXBean) {
+                    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+                    if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                        return sunBean;
+                    }
+                }
+            } catch (Throwable ignored) {
+            }
+            return null;
+        }
+
+        private BenchmarkOperation count(final BenchmarkOperation operation) {
+            if (bean == null) {
+                return operation;
+            }
+            return new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    long id = Thread.currentThread().getId();
+                    long before = bean.getThreadAllocatedBytes(id);
+                    operation.invoke();
+                    bytes.addAndGet(bean.getThreadAllocatedBytes(id) - before);
+                    invocations.incrementAndGet();
+                }
+            };
+        }
+
+        private void reset() {
+            bytes.set(0);
+            invocations.set(0);
+        }
+
+        private BenchmarkResult addTo(BenchmarkResult result, long pixelBytes) {
+            result.addMetric("pixel.bytes", pixelBytes);
+            if (invocations.get() > 0) {
+                result.addMetric("alloc.bytes", (double) bytes.get() / invocations.get());
+            }
+            return result;
+        }
+    }
+}
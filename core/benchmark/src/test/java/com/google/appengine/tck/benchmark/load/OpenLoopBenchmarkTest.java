@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.load;
+
+import java.net.URL;
+
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.support.ResponderClient;
+import com.google.appengine.tck.benchmark.support.ResponderServlet;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Closed-loop versus open-loop latency of the same requests, see OpenLoopRunner.
+ * <p/>
+ * Requests go to ResponderServlet, which takes benchmark.openloop.latency millis, over benchmark.openloop.connections connections;
+ * the closed-loop run shows the capacity, the open-loop runs offer each of benchmark.openloop.rates requests per second.
+ * Near and over capacity the open-loop latency includes the time requests wait for a connection,
+ * which the closed-loop run never sees.
+ * Any other benchmark runs open-loop with benchmark.rate.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class OpenLoopBenchmarkTest extends BenchmarkTestBase {
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment(new TestContext().setWebXmlFile("web-urlfetch-benchmark.xml"));
+        war.addClass(ResponderServlet.class);
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testRates(@ArquillianResource URL url) throws Exception {
+        int latency = Integer.parseInt(getBenchmarkProperty("benchmark.openloop.latency", "20"));
+        int size = Integer.parseInt(getBenchmarkProperty("benchmark.openloop.size", "1024"));
+        int connections = Integer.parseInt(getBenchmarkProperty("benchmark.openloop.connections", "4"));
+        try (ResponderClient client = new ResponderClient(url, connections)) {
+            benchmarkRespond(client, latency, size, connections, 0);
+            for (int rate : getIntValues("benchmark.openloop.rates", "50,100,150,200")) {
+                benchmarkRespond(client, latency, size, connections, rate);
+            }
+        }
+    }
+
+    /**
+     * Rate 0 is closed-loop.
+     */
+    protected void benchmarkRespond(final ResponderClient client, final int latency, final int size, int connections, int rate) throws Exception {
+        BenchmarkOptions options = getBenchmarkOptions().setThreads(connections).setRate(rate);
+        benchmark("openloop.respond", params("latency", latency, "size", size, "connections", connections), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                Assert.assertEquals(size, client.respond(latency, size));
+            }
+        });
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.logservice;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.api.log.LogQuery;
+import com.google.appengine.api.log.LogService;
+import com.google.appengine.api.log.LogServiceFactory;
+import com.google.appengine.api.log.RequestLogs;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.appengine.api.urlfetch.URLFetchServiceFactory;
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.support.LogGeneratorServlet;
+import com.google.apphosting.api.ApiProxy;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * LogService.fetch throughput, as the request log volume grows.
+ * <p/>
+ * Request logs are generated up to each of benchmark.logservice.volumes (e.g. 1000,10000,100000) in turn,
+ * by fetching LogGeneratorServlet, each request with benchmark.logservice.app.lines app log lines;
+ * logs the application already had count as well.
+ * Requests are made benchmark.logservice.fanout at a time.
+ * Queries for which fetch returns a request log twice are skipped, e.g. the SDK's LocalLogService pages by request id,
+ * which is not always in log order.
+ * At every volume a full fetch is measured across LogQuery batch sizes, time windows
+ * (the last benchmark.logservice.windows percent of the time until the volume was generated), version filters, and with and without app logs.
+ * One operation is one fetched request log, so throughput is in logs per second and latency is that of the whole fetch,
+ * which reads as many logs as the query matched before the benchmark;
+ * fetches which returned fewer logs are counted in the short.fetches metric, including warmup.
+ * Queries which match no logs, e.g. those of the other version, are reported as logservice.fetch.empty,
+ * whose throughput is in fetches per second.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class LogServiceBenchmarkTest extends BenchmarkTestBase {
+    private static final String LOG_PATH = "/benchmark/log";
+    private static final String NO_SUCH_VERSION = "no-such-version";
+    private static final int GENERATE_PER_REQUEST = 1000;
+
+    protected enum VersionFilter {
+        NONE,
+        CURRENT,
+        OTHER
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment(new TestContext().setWebXmlFile("web-logservice-benchmark.xml"));
+        war.addClass(LogGeneratorServlet.class);
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testFetch(@ArquillianResource URL url) throws Exception {
+        int lines = Integer.parseInt(getBenchmarkProperty("benchmark.logservice.app.lines", "2"));
+        int fanout = Integer.parseInt(getBenchmarkProperty("benchmark.logservice.fanout", "50"));
+        // log times are the server's
+        long start = Long.parseLong(invoke(url, "currentTimeMillis"));
+        int generated = 0;
+        for (int volume : getIntValues("benchmark.logservice.volumes", "1000,10000")) {
+            while (generated < volume) {
+                int count = Math.min(volume - generated, GENERATE_PER_REQUEST);
+                invoke(url, "generateLogs", count, lines, fanout);
+                generated += count;
+            }
+            long end = Long.parseLong(invoke(url, "currentTimeMillis"));
+            for (int window : getIntValues("benchmark.logservice.windows", "1,10,100")) {
+                for (VersionFilter filter : VersionFilter.values()) {
+                    for (boolean appLogs : new boolean[]{false, true}) {
+                        for (int batchSize : getIntValues("benchmark.logservice.batch.sizes", "20,100,1000")) {
+                            invoke(url, "benchmarkFetch", volume, window, start, end, filter, appLogs, batchSize);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    protected void benchmarkFetch(int volume, int window, long start, long end, VersionFilter filter, boolean appLogs, int batchSize) throws Exception {
+        final LogService service = LogServiceFactory.getLogService();
+        final LogQuery query = new LogQuery()
+            .batchSize(batchSize)
+            .includeAppLogs(appLogs)
+            .startTimeMillis(end - (end - start) * window / 100)
+            .endTimeMillis(end);
+        if (filter == VersionFilter.CURRENT) {
+            query.majorVersionIds(Collections.singletonList(getMajorVersion()));
+        } else if (filter == VersionFilter.OTHER) {
+            query.majorVersionIds(Collections.singletonList(NO_SUCH_VERSION));
+        }
+
+        // the time window is fixed, so every fetch returns the same logs
+        final int expected = count(service, query);
+        Map<String, String> params = params("volume", volume, "window", window, "versionFilter", filter, "appLogs", appLogs, "batchSize", batchSize);
+        if (expected < 0) {
+            log.warning(String.format("Skipping logservice.fetch %s: fetch repeats request logs", params));
+            return;
+        }
+        // a fetch of nothing, e.g. of the other version, is not a rate of logs
+        String name = (expected > 0) ? "logservice.fetch" : "logservice.fetch.empty";
+        final AtomicLong shortFetches = new AtomicLong();
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(Math.max(1, expected));
+        BenchmarkResult result = measure(name, params, options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                if (fetch(service, query, expected) < expected) {
+                    shortFetches.incrementAndGet();
+                }
+            }
+        });
+        report(result.addMetric("logs", expected).addMetric("short.fetches", shortFetches.get()));
+    }
+
+    /**
+     * @return number of distinct request logs, or -1 if any is fetched twice
+     */
+    private static int count(LogService service, LogQuery query) {
+        Set<String> requestIds = new HashSet<>();
+        for (RequestLogs logs : service.fetch(query)) {
+            if (requestIds.add(logs.getRequestId()) == false) {
+                return -1;
+            }
+        }
+        return requestIds.size();
+    }
+
+    /**
+     * Stops at the limit, so a fetch which repeats logs cannot run away.
+     *
+     * @return number of fetched request logs
+     */
+    private static int fetch(LogService service, LogQuery query, int limit) {
+        int count = 0;
+        Iterator<RequestLogs> iterator = service.fetch(query).iterator();
+        while (count < limit && iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Requests to LogGeneratorServlet, fanout at a time.
+     */
+    protected void generateLogs(int count, int lines, int fanout) throws Exception {
+        log.info(String.format(">>>> Generating %s request logs", count));
+        URLFetchService service = URLFetchServiceFactory.getURLFetchService();
+        ApiProxy.Environment env = ApiProxy.getCurrentEnvironment();
+        Object hostname = env.getAttributes().get("com.google.appengine.runtime.default_version_hostname");
+        URL url = new URL(String.format("http://%s%s?%s=%s", hostname, LOG_PATH, LogGeneratorServlet.LINES, lines));
+        for (int from = 0; from < count; from += fanout) {
+            List<Future<HTTPResponse>> futures = new ArrayList<>(fanout);
+            for (int i = from; i < Math.min(count, from + fanout); i++) {
+                futures.add(service.fetchAsync(url));
+            }
+            for (Future<HTTPResponse> future : futures) {
+                Assert.assertEquals(200, future.get().getResponseCode());
+            }
+        }
+    }
+
+    private static String getMajorVersion() {
+        String version = ApiProxy.getCurrentEnvironment().getVersionId();
+        int dot = version.indexOf('.');
+        return (dot > 0) ? version.substring(0, dot) : version;
+    }
+}
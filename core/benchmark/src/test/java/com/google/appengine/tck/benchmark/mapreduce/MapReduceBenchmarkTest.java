@@ -0,0 +1,387 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.mapreduce;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.lib.LibUtils;
+import com.google.appengine.tck.mapreduce.support.CountMapper;
+import com.google.appengine.tck.mapreduce.support.CountReducer;
+import com.google.appengine.tck.mapreduce.support.EntityCreator;
+import com.google.appengine.tools.mapreduce.KeyValue;
+import com.google.appengine.tools.mapreduce.MapReduceJob;
+import com.google.appengine.tools.mapreduce.MapReduceResult;
+import com.google.appengine.tools.mapreduce.MapReduceSettings;
+import com.google.appengine.tools.mapreduce.MapReduceSpecification;
+import com.google.appengine.tools.mapreduce.Marshallers;
+import com.google.appengine.tools.mapreduce.inputs.ConsecutiveLongInput;
+import com.google.appengine.tools.mapreduce.inputs.DatastoreInput;
+import com.google.appengine.tools.mapreduce.outputs.InMemoryOutput;
+import com.google.appengine.tools.mapreduce.outputs.NoOutput;
+import com.google.appengine.tools.mapreduce.reducers.NoReducer;
+import com.google.appengine.tools.pipeline.JobInfo;
+import com.google.appengine.tools.pipeline.PipelineServiceFactory;
+import com.google.appengine.tools.pipeline.impl.PipelineManager;
+import com.google.appengine.tools.pipeline.impl.model.JobInstanceRecord;
+import com.google.appengine.tools.pipeline.impl.model.JobRecord;
+import com.google.appengine.tools.pipeline.impl.model.PipelineObjects;
+import org.HdrHistogram.Histogram;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * MapReduce shard scaling of the MapReduceTest count job: DatastoreInput, CountMapper and CountReducer.
+ * <p/>
+ * The job runs over benchmark.mapreduce.sizes entities (e.g. 10000,100000,1000000), created once by an EntityCreator job and kept,
+ * with each of benchmark.mapreduce.shards map and reduce shards. One iteration is one job, throughput is in entities/s.
+ * <p/>
+ * Job and per-phase wall times come from the pipeline's job records, so they don't depend on the polling interval;
+ * shuffle is the sort and merge stages together. Speedup and scaling efficiency are relative to the first shard count of the sweep.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class MapReduceBenchmarkTest extends BenchmarkTestBase {
+    private static final String KIND = "MapReduceBenchmark";
+    private static final String WORKER_QUEUE = "benchmark-mapreduce-workers";
+    private static final List<String> PAYLOADS = Arrays.asList("capedwarf", "jboss", "redhat", "appengine", "benchmark");
+    private static final int DELETE_BATCH_SIZE = 500;
+    private static final int DELETE_BATCHES_PER_REQUEST = 20;
+    private static final int MAX_SYNC_ATTEMPTS = 60;
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Stages of MapReduceJob, by the simple names of their pipeline jobs.
+     */
+    protected enum Phase {
+        MAP("MapJob"),
+        SHUFFLE("SortJob", "MergeJob"),
+        REDUCE("ReduceJob");
+
+        private final String[] jobs;
+
+        Phase(String... jobs) {
+            this.jobs = jobs;
+        }
+
+        private boolean matches(String className) {
+            for (String job : jobs) {
+                if (className.endsWith("$" + job)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment(new TestContext().setWebXmlFile("web-mapreduce-benchmark.xml"));
+        war.addClasses(CountMapper.class, CountReducer.class, EntityCreator.class);
+        war.addAsWebInfResource("queue-mapreduce-benchmark.xml", "queue.xml");
+
+        LibUtils libUtils = new LibUtils();
+        libUtils.addGaeAsLibrary(war);
+        libUtils.addLibrary(war, "com.google.appengine.tools", "appengine-mapreduce");
+        libUtils.addLibrary(war, "com.google.appengine.tools", "appengine-pipeline");
+
+        // GCS, for the shuffle
+        libUtils.addLibrary(war, "com.google.appengine.tools", "appengine-gcs-client");
+        libUtils.addLibrary(war, "joda-time", "joda-time");
+        libUtils.addLibrary(war, "com.google.api-client", "google-api-client");
+        libUtils.addLibrary(war, "com.google.http-client", "google-http-client");
+        libUtils.addLibrary(war, "com.google.http-client", "google-http-client-appengine");
+        libUtils.addLibrary(war, "com.google.http-client", "google-http-client-jackson2");
+        libUtils.addLibrary(war, "com.google.api-client", "google-api-client-appengine");
+        libUtils.addLibrary(war, "com.google.apis", "google-api-services-storage");
+        libUtils.addLibrary(war, "com.fasterxml.jackson.core", "jackson-core");
+
+        libUtils.addLibrary(war, "com.google.guava", "guava");
+        libUtils.addLibrary(war, "it.unimi.dsi", "fastutil");
+        libUtils.addLibrary(war, "com.googlecode.charts4j", "charts4j");
+        libUtils.addLibrary(war, "commons-logging", "commons-logging");
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testShardScaling(@ArquillianResource URL url) throws Exception {
+        for (int size : getIntValues("benchmark.mapreduce.sizes", "10000,100000")) {
+            String kind = loadEntities(url, size);
+            int baselineShards = 0;
+            double baselineMillis = 0;
+            for (int shards : getIntValues("benchmark.mapreduce.shards", "1,2,4,8,16,32,64")) {
+                double job = benchmarkCount(url, kind, size, shards, baselineShards, baselineMillis);
+                if (baselineShards == 0) {
+                    baselineShards = shards;
+                    baselineMillis = job;
+                }
+            }
+        }
+    }
+
+    /**
+     * Every job is started, polled and measured by requests of its own, a job easily outlasts a request.
+     *
+     * @return mean job time in millis
+     */
+    private double benchmarkCount(URL url, String kind, int size, int shards, int baselineShards, double baselineMillis) throws Exception {
+        BenchmarkOptions options = getBenchmarkOptions();
+        for (int i = 0; i < options.getWarmupIterations(); i++) {
+            waitToFinish(url, invoke(url, "startCount", kind, size, shards));
+        }
+
+        StringBuilder handles = new StringBuilder();
+        for (int i = 0; i < options.getMeasurementIterations(); i++) {
+            String handle = invoke(url, "startCount", kind, size, shards);
+            waitToFinish(url, handle);
+            handles.append(handles.length() > 0 ? "," : "").append(handle);
+        }
+        return Double.parseDouble(invoke(url, "reportCount", size, shards, handles.toString(), baselineShards, baselineMillis));
+    }
+
+    /**
+     * Reports the measured jobs, from their pipeline records.
+     *
+     * @param handles comma separated handles of the measured jobs
+     * @param baselineShards first shard count of the sweep, 0 if this is the first
+     * @return mean job time in millis
+     */
+    protected double reportCount(int size, int shards, String handles, int baselineShards, double baselineMillis) throws Exception {
+        String[] split = handles.split(",");
+        BenchmarkOptions options = getBenchmarkOptions().setInvocations(1).setOperationsPerInvocation(size).setMeasurementIterations(split.length);
+        PhaseTimes times = new PhaseTimes();
+        double[] throughput = new double[split.length];
+        for (int i = 0; i < split.length; i++) {
+            throughput[i] = size * 1000.0 / Math.max(1, getJobMillis(split[i], size, times));
+        }
+
+        BenchmarkResult result = new BenchmarkResult("mapreduce.count", params("size", size, "shards", shards), options, throughput, times.job, (long) size * throughput.length);
+        double job = times.job.getMean() / MILLIS;
+        // the first shard count of the sweep is its own baseline
+        int firstShards = (baselineShards > 0) ? baselineShards : shards;
+        double speedup = (baselineShards > 0) ? baselineMillis / job : 1;
+        result.addMetric("job.ms", job);
+        for (Phase phase : Phase.values()) {
+            result.addMetric(phase.name().toLowerCase() + ".ms", times.getMean(phase));
+        }
+        result.addMetric("speedup", speedup);
+        report(result.addMetric("scaling.efficiency", speedup * firstShards / shards));
+        return job;
+    }
+
+    /**
+     * @return the job's handle
+     */
+    @SuppressWarnings("unchecked")
+    protected String startCount(String kind, int size, int shards) throws Exception {
+        MapReduceSpecification.Builder builder = new MapReduceSpecification.Builder();
+        builder.setJobName("MapReduceBenchmarkTest count " + size + "/" + shards);
+        builder.setInput(new DatastoreInput(kind, shards));
+        builder.setMapper(new CountMapper());
+        builder.setKeyMarshaller(Marshallers.getStringMarshaller());
+        builder.setValueMarshaller(Marshallers.getLongMarshaller());
+        builder.setReducer(new CountReducer());
+        builder.setNumReducers(shards);
+        builder.setOutput(new InMemoryOutput<KeyValue<String, Long>>());
+        return MapReduceJob.start(builder.build(), getSettings());
+    }
+
+    /**
+     * Returns the finished job's wall time in millis.
+     */
+    private long getJobMillis(String handle, int size, PhaseTimes times) throws Exception {
+        JobInfo info = PipelineServiceFactory.newPipelineService().getJobInfo(handle);
+        MapReduceResult result = MapReduceResult.class.cast(info.getOutput());
+        Assert.assertEquals(size, result.getCounters().getCounter("total entities").getValue());
+
+        PipelineObjects pipeline = PipelineManager.queryFullPipeline(handle);
+        long job = pipeline.rootJob.getEndTime().getTime() - pipeline.rootJob.getStartTime().getTime();
+        times.job.recordValue(TimeUnit.MILLISECONDS.toNanos(job));
+        times.add(getPhaseMillis(pipeline));
+        return job;
+    }
+
+    /**
+     * A phase spans from the first start to the last end of its stages' jobs.
+     */
+    private static Map<Phase, Long> getPhaseMillis(PipelineObjects pipeline) {
+        Map<Phase, Long> millis = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            long start = Long.MAX_VALUE;
+            long end = Long.MIN_VALUE;
+            for (JobRecord job : pipeline.jobs.values()) {
+                JobInstanceRecord instance = pipeline.jobInstanceRecords.get(job.getJobInstanceKey());
+                if (instance != null && phase.matches(instance.getClassName()) && job.getStartTime() != null && job.getEndTime() != null) {
+                    start = Math.min(start, job.getStartTime().getTime());
+                    end = Math.max(end, job.getEndTime().getTime());
+                }
+            }
+            if (end < start) {
+                throw new IllegalStateException("No finished " + phase + " stage in pipeline " + pipeline.rootJob.getKey().getName());
+            }
+            millis.put(phase, end - start);
+        }
+        return millis;
+    }
+
+    /**
+     * Entities are created once per size and kept; EntityCreator picks random names,
+     * so an incomplete set is deleted and created again.
+     */
+    private String loadEntities(URL url, int size) throws Exception {
+        String kind = KIND + size;
+        if (Integer.parseInt(invoke(url, "countEntities", kind, size)) == size) {
+            return kind;
+        }
+
+        log.info(String.format(">>>> Loading %s entities of kind %s", size, kind));
+        while (Boolean.parseBoolean(invoke(url, "deleteEntities", kind)) == false) {
+            log.info(String.format(">>>> Deleting entities of kind %s", kind));
+        }
+        // EntityCreator keeps its mutation pool in the mapper, which concurrent shards in one instance share and lose puts
+        int shards = Integer.parseInt(getBenchmarkProperty("benchmark.mapreduce.create.shards", "1"));
+        waitToFinish(url, invoke(url, "startCreate", kind, size, shards));
+
+        for (int attempt = 0; Integer.parseInt(invoke(url, "countEntities", kind, size)) < size; attempt++) {
+            if (attempt >= MAX_SYNC_ATTEMPTS) {
+                throw new IllegalStateException(String.format("Only %s of %s entities of kind %s are visible to queries.", invoke(url, "countEntities", kind, size), size, kind));
+            }
+            sync(1000);
+        }
+        return kind;
+    }
+
+    /**
+     * @return the job's handle
+     */
+    @SuppressWarnings("unchecked")
+    protected String startCreate(String kind, int size, int shards) throws Exception {
+        MapReduceSpecification.Builder builder = new MapReduceSpecification.Builder();
+        builder.setJobName("Create MapReduceBenchmarkTest entities " + size);
+        builder.setInput(new ConsecutiveLongInput(0, size, shards));
+        builder.setMapper(new EntityCreator(kind, PAYLOADS));
+        builder.setKeyMarshaller(Marshallers.getVoidMarshaller());
+        builder.setValueMarshaller(Marshallers.getVoidMarshaller());
+        builder.setReducer(NoReducer.create());
+        builder.setOutput(new NoOutput());
+        return MapReduceJob.start(builder.build(), getSettings());
+    }
+
+    /**
+     * Polls the job, unlike MapReduceTestBase.waitToFinish with a configurable interval and timeout.
+     */
+    private void waitToFinish(URL url, String handle) throws Exception {
+        long interval = Long.parseLong(getBenchmarkProperty("benchmark.mapreduce.poll.interval", "500"));
+        long timeout = Long.parseLong(getBenchmarkProperty("benchmark.mapreduce.timeout", "3600000"));
+        long start = System.currentTimeMillis();
+        while (Boolean.parseBoolean(invoke(url, "isFinished", handle)) == false) {
+            if (System.currentTimeMillis() - start > timeout) {
+                throw new IllegalStateException(String.format("MapReduce job %s did not finish in %s ms.", handle, timeout));
+            }
+            sync(interval);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the job failed
+     */
+    protected boolean isFinished(String handle) throws Exception {
+        JobInfo info = PipelineServiceFactory.newPipelineService().getJobInfo(handle);
+        if (info.getJobState() == null || info.getJobState() == JobInfo.State.RUNNING) {
+            return false;
+        }
+        if (info.getJobState() != JobInfo.State.COMPLETED_SUCCESSFULLY) {
+            throw new IllegalStateException(String.format("MapReduce job %s failed: %s", handle, info.getError()));
+        }
+        return true;
+    }
+
+    protected int countEntities(String kind, int size) {
+        DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+        return ds.prepare(new Query(kind).setKeysOnly()).countEntities(FetchOptions.Builder.withLimit(size + 1));
+    }
+
+    /**
+     * Deletes up to DELETE_BATCHES_PER_REQUEST batches of the kind.
+     *
+     * @return true if there was nothing left to delete
+     */
+    protected boolean deleteEntities(String kind) {
+        DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+        Query query = new Query(kind).setKeysOnly();
+        for (int i = 0; i < DELETE_BATCHES_PER_REQUEST; i++) {
+            List<Entity> entities = ds.prepare(query).asList(FetchOptions.Builder.withLimit(DELETE_BATCH_SIZE));
+            if (entities.isEmpty()) {
+                return true;
+            }
+            List<Key> keys = new ArrayList<>(entities.size());
+            for (Entity entity : entities) {
+                keys.add(entity.getKey());
+            }
+            ds.delete(keys);
+        }
+        return false;
+    }
+
+    private static MapReduceSettings getSettings() {
+        return new MapReduceSettings.Builder().setWorkerQueueName(WORKER_QUEUE).build();
+    }
+
+    /**
+     * Job time histogram and per-phase sums over the measured jobs.
+     */
+    private static class PhaseTimes {
+        private final Histogram job = new Histogram(3);
+        private final Map<Phase, Long> sums = new EnumMap<>(Phase.class);
+        private int count;
+
+        private void add(Map<Phase, Long> millis) {
+            for (Map.Entry<Phase, Long> entry : millis.entrySet()) {
+                Long sum = sums.get(entry.getKey());
+                sums.put(entry.getKey(), (sum != null ? sum : 0) + entry.getValue());
+            }
+            count++;
+        }
+
+        private double getMean(Phase phase) {
+            Long sum = sums.get(phase);
+            return (sum != null && count > 0) ? (double) sum / count : 0;
+        }
+    }
+}
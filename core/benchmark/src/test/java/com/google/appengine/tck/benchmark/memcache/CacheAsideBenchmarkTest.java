@@ -0,0 +1,356 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.memcache;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.harness.ZipfDistribution;
+import com.google.appengine.tck.benchmark.support.CacheAside;
+import com.google.appengine.tck.benchmark.support.WriteBehindServlet;
+import org.HdrHistogram.Histogram;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Cache-aside memcache over datastore: hit ratio, effective read latency and staleness, see CacheAside.
+ * <p/>
+ * Keys are drawn from a Zipfian distribution over benchmark.cacheaside.keys entities,
+ * with each of benchmark.cacheaside.skews; memcache is flushed before every run, and warmup iterations fill it,
+ * so hit ratio and datastore reads per get (the load memcache did not take off datastore) are measurement only.
+ * Reads compare plain datastore gets to read-through gets.
+ * Mixed runs write benchmark.cacheaside.write.percents of the operations, invalidating or write-behind through
+ * a push queue; a read is stale if it returns an older version than the last write which completed before the read started,
+ * staleness is how long that write had completed.
+ * Write-behind also reports the write to persist lag and how long datastore took to catch up after the run.
+ * Memcache expiration is benchmark.cacheaside.expiration seconds, 0 (default) never expires, so stale entries stay until the next write.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class CacheAsideBenchmarkTest extends BenchmarkTestBase {
+    private static final String QUEUE = "benchmark-writebehind";
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final double MILLIS = 1e6;
+    private static final double MICROS = 1e3;
+
+    private volatile boolean recording;
+
+    protected enum Mode {
+        DATASTORE,
+        READ_THROUGH
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment(new TestContext().setWebXmlFile("web-cacheaside-benchmark.xml"));
+        war.addClasses(CacheAside.class, WriteBehindServlet.class);
+        war.addAsWebInfResource("queue-cacheaside-benchmark.xml", "queue.xml");
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testRead(@ArquillianResource URL url) throws Exception {
+        for (double skew : getDoubleValues("benchmark.cacheaside.skews", "0.5,0.99,1.2")) {
+            for (Mode mode : Mode.values()) {
+                for (int threads : getThreads()) {
+                    invoke(url, "benchmarkRead", mode, skew, threads);
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testMixed(@ArquillianResource URL url) throws Exception {
+        double skew = Double.parseDouble(getBenchmarkProperty("benchmark.cacheaside.skew", "0.99"));
+        for (CacheAside.WritePolicy policy : CacheAside.WritePolicy.values()) {
+            for (int percent : getIntValues("benchmark.cacheaside.write.percents", "5,20")) {
+                for (int threads : getThreads()) {
+                    invoke(url, "benchmarkMixed", policy, skew, percent, threads);
+                }
+            }
+        }
+    }
+
+    protected void benchmarkRead(final Mode mode, double skew, int threads) throws Exception {
+        final Keys keys = new Keys(getKeyCount(), skew);
+        final DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+        final CacheAside cache = new CacheAside(CacheAside.WritePolicy.INVALIDATE, getExpiration(), null);
+        try {
+            BenchmarkOptions options = getBenchmarkOptions().setThreads(threads);
+            Map<String, String> params = params("mode", mode, "keys", keys.size(), "skew", skew, "threads", threads);
+            BenchmarkResult result = measureWarm("cacheaside.read", params, options, cache, new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    Key key = keys.next();
+                    Entity entity = (mode == Mode.DATASTORE) ? ds.get(key) : cache.get(key);
+                    Assert.assertNotNull(entity);
+                }
+            });
+            long gets = cache.getHits() + cache.getMisses();
+            if (mode == Mode.DATASTORE) {
+                result.addMetric("hit.ratio", 0);
+                report(result.addMetric("datastore.reads", 1));
+            } else {
+                result.addMetric("hit.ratio", cache.getHits() / (double) Math.max(1, gets));
+                report(result.addMetric("datastore.reads", cache.getMisses() / (double) Math.max(1, gets)));
+            }
+        } finally {
+            keys.delete();
+        }
+    }
+
+    protected void benchmarkMixed(final CacheAside.WritePolicy policy, double skew, final int percent, int threads) throws Exception {
+        final Keys keys = new Keys(getKeyCount(), skew);
+        final Queue queue = QueueFactory.getQueue(QUEUE);
+        final CacheAside cache = new CacheAside(policy, getExpiration(), queue);
+        final Histogram reads = new Histogram(3);
+        final Histogram writes = new Histogram(3);
+        final Histogram staleness = new Histogram(3);
+        final AtomicLong stale = new AtomicLong();
+        try {
+            BenchmarkOptions options = getBenchmarkOptions().setThreads(threads);
+            Map<String, String> params = params("policy", policy, "keys", keys.size(), "skew", skew, "writePercent", percent, "threads", threads);
+            BenchmarkResult result = measureWarm("cacheaside.mixed", params, options, cache, new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    int rank = keys.nextRank();
+                    long start = System.nanoTime();
+                    if (ThreadLocalRandom.current().nextInt(100) < percent) {
+                        long version = keys.nextVersion(rank);
+                        cache.put(CacheAside.createEntity(keys.getName(rank), version, keys.value));
+                        long end = System.nanoTime();
+                        keys.committed(rank, version, end);
+                        record(writes, end - start);
+                    } else {
+                        long[] last = keys.getCommitted(rank);
+                        Entity entity = cache.get(keys.getKey(rank));
+                        long end = System.nanoTime();
+                        Assert.assertNotNull(entity);
+                        record(reads, end - start);
+                        if (CacheAside.getVersion(entity) < last[0]) {
+                            stale.incrementAndGet();
+                            record(staleness, start - last[1]);
+                        }
+                    }
+                }
+            });
+
+            long gets = cache.getHits() + cache.getMisses();
+            result.addMetric("hit.ratio", cache.getHits() / (double) Math.max(1, gets));
+            result.addMetric("datastore.reads", cache.getMisses() / (double) Math.max(1, gets));
+            addLatency(result, "read", reads, MICROS, "us");
+            addLatency(result, "write", writes, MICROS, "us");
+            result.addMetric("stale.ratio", stale.get() / (double) Math.max(1, reads.getTotalCount()));
+            addLatency(result, "staleness", staleness, MILLIS, "ms");
+            result.addMetric("staleness.max.ms", staleness.getMaxValue() / MILLIS);
+            if (policy == CacheAside.WritePolicy.WRITE_BEHIND) {
+                long drainStart = System.nanoTime();
+                Histogram lag = keys.awaitPersisted();
+                result.addMetric("drain.ms", (System.nanoTime() - drainStart) / MILLIS);
+                addLatency(result, "persist.lag", lag, MILLIS, "ms");
+            }
+            report(result);
+        } finally {
+            queue.purge();
+            keys.delete();
+        }
+    }
+
+    /**
+     * Runs the warmup iterations on a flushed memcache, so the counters and histograms only see measurement iterations.
+     */
+    protected BenchmarkResult measureWarm(String name, Map<String, String> params, BenchmarkOptions options, CacheAside cache, BenchmarkOperation operation) throws Exception {
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        BenchmarkOptions measurement = warmUp(name, params, options, operation);
+        recording = true;
+        cache.resetCounters();
+        try {
+            return measure(name, params, measurement, operation);
+        } finally {
+            recording = false;
+        }
+    }
+
+    private void record(Histogram histogram, long nanos) {
+        if (recording) {
+            synchronized (histogram) {
+                histogram.recordValue(Math.max(0, nanos));
+            }
+        }
+    }
+
+    private static void addLatency(BenchmarkResult result, String name, Histogram histogram, double unit, String suffix) {
+        result.addMetric(name + ".p50." + suffix, histogram.getValueAtPercentile(50) / unit);
+        result.addMetric(name + ".p99." + suffix, histogram.getValueAtPercentile(99) / unit);
+    }
+
+    private static int getKeyCount() {
+        return Integer.parseInt(getBenchmarkProperty("benchmark.cacheaside.keys", "1000"));
+    }
+
+    private static int getExpiration() {
+        return Integer.parseInt(getBenchmarkProperty("benchmark.cacheaside.expiration", "0"));
+    }
+
+    private static int[] getThreads() {
+        return getIntValues("benchmark.cacheaside.threads", "1,4");
+    }
+
+    /**
+     * Entities of one run, with the last completed write per key.
+     */
+    private static class Keys {
+        private final DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+        private final String run = "cacheaside-" + System.nanoTime();
+        private final ZipfDistribution distribution;
+        private final List<Key> keys;
+        private final AtomicLongArray versions;
+        private final AtomicReferenceArray<long[]> committed;
+        private final String value;
+
+        private Keys(int size, double skew) {
+            distribution = new ZipfDistribution(size, skew);
+            keys = new ArrayList<>(size);
+            versions = new AtomicLongArray(size);
+            committed = new AtomicReferenceArray<>(size);
+            char[] chars = new char[Integer.parseInt(getBenchmarkProperty("benchmark.cacheaside.value.size", "1024"))];
+            Arrays.fill(chars, 'x');
+            value = new String(chars);
+
+            List<Entity> batch = new ArrayList<>(MAX_BATCH_SIZE);
+            for (int i = 0; i < size; i++) {
+                Entity entity = CacheAside.createEntity(getName(i), 0, value);
+                keys.add(entity.getKey());
+                committed.set(i, new long[]{0, System.nanoTime()});
+                batch.add(entity);
+                if (batch.size() == MAX_BATCH_SIZE || i == size - 1) {
+                    ds.put(batch);
+                    batch.clear();
+                }
+            }
+        }
+
+        private int size() {
+            return keys.size();
+        }
+
+        private String getName(int rank) {
+            return run + "-" + rank;
+        }
+
+        private Key getKey(int rank) {
+            return keys.get(rank);
+        }
+
+        private int nextRank() {
+            return distribution.next();
+        }
+
+        private Key next() {
+            return keys.get(nextRank());
+        }
+
+        private long nextVersion(int rank) {
+            return versions.incrementAndGet(rank);
+        }
+
+        /**
+         * Concurrent writes of the same key may complete out of order, the newest version wins.
+         */
+        private void committed(int rank, long version, long nanos) {
+            long[] update = new long[]{version, nanos};
+            long[] current = committed.get(rank);
+            while (current[0] < version && committed.compareAndSet(rank, current, update) == false) {
+                current = committed.get(rank);
+            }
+        }
+
+        private long[] getCommitted(int rank) {
+            return committed.get(rank);
+        }
+
+        /**
+         * Waits for write-behind tasks to bring datastore up to the last written versions.
+         */
+        private Histogram awaitPersisted() throws Exception {
+            long timeout = Long.parseLong(getBenchmarkProperty("benchmark.cacheaside.drain.timeout", "60000"));
+            long start = System.currentTimeMillis();
+            while (true) {
+                Histogram lag = new Histogram(3);
+                int pending = 0;
+                for (int i = 0; i < keys.size(); i++) {
+                    long version = versions.get(i);
+                    if (version == 0) {
+                        continue;
+                    }
+                    Entity entity;
+                    try {
+                        entity = ds.get(keys.get(i));
+                    } catch (EntityNotFoundException e) {
+                        pending++;
+                        continue;
+                    }
+                    if (CacheAside.getVersion(entity) < version) {
+                        pending++;
+                    } else {
+                        lag.recordValue(TimeUnit.MILLISECONDS.toNanos(Math.max(0, (Long) entity.getProperty(WriteBehindServlet.LAG))));
+                    }
+                }
+                if (pending == 0) {
+                    return lag;
+                }
+                if (System.currentTimeMillis() - start > timeout) {
+                    throw new IllegalStateException(String.format("%s write-behind entities not persisted in %s ms.", pending, timeout));
+                }
+                sync(100);
+            }
+        }
+
+        private void delete() {
+            for (int i = 0; i < keys.size(); i += MAX_BATCH_SIZE) {
+                ds.delete(keys.subList(i, Math.min(i + MAX_BATCH_SIZE, keys.size())));
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.memcache;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.google.appengine.api.memcache.AsyncMemcacheService;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.memcache.CacheTestBase;
+import com.google.appengine.tck.memcache.support.ComboType;
+import org.HdrHistogram.Histogram;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * MemcacheService / AsyncMemcacheService putAll, getAll, incrementAll and deleteAll.
+ * <p/>
+ * Sweeps batch size (benchmark.memcache.batch.sizes) and value size (benchmark.memcache.value.sizes, 10 bytes to 1MB);
+ * values are built with CacheTestBase's getBigString, clamped to 1MB minus its key overhead, like its str1mb,
+ * and batches over 32MB in total are skipped, as that is over the batch limit.
+ * <p/>
+ * Deleted values are gone, so deleteAll pre-populates the batches of each iteration right before it;
+ * the invocations per iteration (benchmark.memcache.delete.invocations) are reduced so that an iteration's batches fit into
+ * benchmark.memcache.delete.capacity bytes (64MB), under the cache size, as evictions would turn deletes into misses.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class MemcacheBatchBenchmarkTest extends BenchmarkTestBase {
+    private static final int MAX_VALUE_SIZE = 1024 * 1024 - CacheTestBase.overhead;
+    private static final long MAX_BATCH_SIZE = 32L * 1024 * 1024;
+
+    private MemcacheService service;
+    private AsyncMemcacheService asyncService;
+
+    protected enum Api {
+        SYNC,
+        ASYNC
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment();
+        war.addClasses(CacheTestBase.class, ComboType.class);
+        return war;
+    }
+
+    @Before
+    public void setUp() {
+        service = MemcacheServiceFactory.getMemcacheService();
+        asyncService = MemcacheServiceFactory.getAsyncMemcacheService();
+    }
+
+    @Test
+    @RunAsClient
+    public void testPutAll(@ArquillianResource URL url) throws Exception {
+        for (Api api : Api.values()) {
+            for (int batchSize : getBatchSizes()) {
+                for (int valueSize : getValueSizes()) {
+                    if (isSupported(batchSize, valueSize)) {
+                        invoke(url, "benchmarkPutAll", api, batchSize, valueSize);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testGetAll(@ArquillianResource URL url) throws Exception {
+        for (Api api : Api.values()) {
+            for (int batchSize : getBatchSizes()) {
+                for (int valueSize : getValueSizes()) {
+                    if (isSupported(batchSize, valueSize)) {
+                        invoke(url, "benchmarkGetAll", api, batchSize, valueSize);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testIncrementAll(@ArquillianResource URL url) throws Exception {
+        for (Api api : Api.values()) {
+            for (int batchSize : getBatchSizes()) {
+                invoke(url, "benchmarkIncrementAll", api, batchSize);
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testDeleteAll(@ArquillianResource URL url) throws Exception {
+        for (Api api : Api.values()) {
+            for (int batchSize : getBatchSizes()) {
+                for (int valueSize : getValueSizes()) {
+                    if (isSupported(batchSize, valueSize)) {
+                        invoke(url, "benchmarkDeleteAll", api, batchSize, valueSize);
+                    }
+                }
+            }
+        }
+    }
+
+    protected void benchmarkPutAll(final Api api, int batchSize, int valueSize) throws Exception {
+        final Map<Object, Object> data = createBatchData("putAll", batchSize, valueSize);
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(batchSize);
+        benchmark("memcache.putAll", params("api", api, "batchSize", batchSize, "valueSize", valueSize), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                if (api == Api.SYNC) {
+                    service.putAll(data);
+                } else {
+                    asyncService.putAll(data).get();
+                }
+            }
+        });
+    }
+
+    protected void benchmarkGetAll(final Api api, final int batchSize, int valueSize) throws Exception {
+        Map<Object, Object> data = createBatchData("getAll", batchSize, valueSize);
+        service.putAll(data);
+        final List<Object> keys = new ArrayList<>(data.keySet());
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(batchSize);
+        benchmark("memcache.getAll", params("api", api, "batchSize", batchSize, "valueSize", valueSize), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                Map<Object, Object> values = (api == Api.SYNC) ? service.getAll(keys) : asyncService.getAll(keys).get();
+                // memcache may evict, but a miss here would skew the numbers
+                Assert.assertEquals(batchSize, values.size());
+            }
+        });
+    }
+
+    protected void benchmarkIncrementAll(final Api api, final int batchSize) throws Exception {
+        Map<Object, Long> data = createLongBatchData("incrementAll", batchSize);
+        service.putAll(data);
+        final List<Object> keys = new ArrayList<Object>(data.keySet());
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(batchSize);
+        benchmark("memcache.incrementAll", params("api", api, "batchSize", batchSize), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                Map<Object, Long> values = (api == Api.SYNC) ? service.incrementAll(keys, 1L) : asyncService.incrementAll(keys, 1L).get();
+                Assert.assertEquals(batchSize, values.size());
+            }
+        });
+    }
+
+    protected void benchmarkDeleteAll(final Api api, int batchSize, int valueSize) throws Exception {
+        BenchmarkOptions options = getBenchmarkOptions();
+        long batchBytes = (long) batchSize * (Math.min(valueSize, MAX_VALUE_SIZE) + CacheTestBase.overhead);
+        long capacity = Long.parseLong(getBenchmarkProperty("benchmark.memcache.delete.capacity", String.valueOf(64L * 1024 * 1024)));
+        int invocations = Integer.parseInt(getBenchmarkProperty("benchmark.memcache.delete.invocations", "10"));
+        invocations = (int) Math.max(1, Math.min(invocations, capacity / (batchBytes * options.getThreads())));
+        options.setInvocations(invocations).setOperationsPerInvocation(batchSize);
+        int batches = invocations * options.getThreads();
+
+        String name = "memcache.deleteAll";
+        Map<String, String> params = params("api", api, "batchSize", batchSize, "valueSize", valueSize);
+        final Queue<List<Object>> pool = new ConcurrentLinkedQueue<>();
+        BenchmarkOperation operation = new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                List<Object> keys = pool.poll();
+                if (keys == null) {
+                    throw new IllegalStateException("No more pre-populated batches to delete.");
+                }
+                Set<Object> deleted = (api == Api.SYNC) ? service.deleteAll(keys) : asyncService.deleteAll(keys).get();
+                // an evicted value makes it a cheaper delete of a missing key
+                Assert.assertEquals("Values evicted before deleteAll", keys.size(), deleted.size());
+            }
+        };
+
+        for (int i = 0; i < options.getWarmupIterations(); i++) {
+            populate(pool, name, batches, batchSize, valueSize);
+            warmUp(name, params, options.copy().setWarmupIterations(1), operation);
+        }
+        BenchmarkOptions iteration = options.copy().setWarmupIterations(0).setMeasurementIterations(1);
+        double[] throughput = new double[options.getMeasurementIterations()];
+        Histogram latency = new Histogram(3);
+        long operations = 0;
+        for (int i = 0; i < throughput.length; i++) {
+            populate(pool, name, batches, batchSize, valueSize);
+            BenchmarkResult result = measure(name, params, iteration, operation);
+            params = result.getParams();
+            throughput[i] = result.getScore();
+            latency.add(result.getLatency());
+            operations += result.getOperations();
+        }
+        report(new BenchmarkResult(name, params, options, throughput, latency, operations).addMetric("invocations", invocations));
+    }
+
+    private void populate(Queue<List<Object>> pool, String name, int batches, int batchSize, int valueSize) {
+        pool.clear();
+        for (int i = 0; i < batches; i++) {
+            Map<Object, Object> data = createBatchData(name + "-" + i, batchSize, valueSize);
+            service.putAll(data);
+            pool.add(new ArrayList<>(data.keySet()));
+        }
+    }
+
+    protected static boolean isSupported(int batchSize, int valueSize) {
+        return (long) batchSize * Math.min(valueSize, MAX_VALUE_SIZE) <= MAX_BATCH_SIZE;
+    }
+
+    protected static Map<Object, Object> createBatchData(String name, int batchSize, int valueSize) {
+        String tsKey = createTimeStampKey(name);
+        String value = CacheTestBase.getBigString(Math.min(valueSize, MAX_VALUE_SIZE));
+        Map<Object, Object> map = new HashMap<>();
+        for (int i = 0; i < batchSize; i++) {
+            map.put(tsKey + "-" + i, value);
+        }
+        return map;
+    }
+
+    protected static Map<Object, Long> createLongBatchData(String name, int batchSize) {
+        String tsKey = createTimeStampKey(name);
+        Map<Object, Long> map = new HashMap<>();
+        for (long num = 0; num < batchSize; num++) {
+            map.put(tsKey + "-" + num, num);
+        }
+        return map;
+    }
+
+    private static String createTimeStampKey(String name) {
+        return name + "-" + System.nanoTime();
+    }
+
+    private static int[] getBatchSizes() {
+        return getIntValues("benchmark.memcache.batch.sizes", "1,10,100,500");
+    }
+
+    private static int[] getValueSizes() {
+        return getIntValues("benchmark.memcache.value.sizes", "10,1024,102400,1048576");
+    }
+}
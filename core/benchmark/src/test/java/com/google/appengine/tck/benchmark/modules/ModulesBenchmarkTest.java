@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.modules;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.support.ModuleHopServlet;
+import com.google.appengine.tck.benchmark.support.ModulesClient;
+import org.HdrHistogram.Histogram;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.junit.InSequence;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.spec.EnterpriseArchive;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Latency and throughput of calls between modules, plus datastore and memcache visibility lag between them.
+ * <p/>
+ * The deployment is an EAR of the default module and m2, as in the modules tests.
+ * The client calls the default module, which hops over URLFetch through benchmark.modules.hops modules, alternating m2 and default,
+ * using the hostnames ModulesService.getVersionHostname returns; the last one writes back benchmark.modules.sizes bytes.
+ * Next to the end to end throughput and latency, hop.us is the extra p50 latency per hop over the same call without hops,
+ * fetch.p50.us / fetch.p99.us the default module's outgoing fetch, all downstream hops included.
+ * Every visit of a chain holds a request thread and a fetch until the chain returns, so long chains with many concurrent callers
+ * (benchmark.modules.threads) can exhaust an instance's threads or fetch connections and time out, e.g. 4 hops by 4 callers on the dev server.
+ * <p/>
+ * Visibility creates, updates and deletes in the default module and polls m2 until it sees each write,
+ * benchmark.modules.visibility.rounds times, with datastore gets, non-ancestor (eventually consistent) queries and memcache gets;
+ * lag includes one fetch to m2, reads is how many polls it took.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class ModulesBenchmarkTest extends BenchmarkTestBase {
+    private static final String DEFAULT_MODULE = "default";
+    private static final String MODULE = "m2";
+    private static final double MS = 1000000.0;
+
+    @Deployment
+    public static EnterpriseArchive getDeployment() {
+        EnterpriseArchive ear = ShrinkWrap.create(EnterpriseArchive.class, "modules-benchmark.ear");
+        ear.addAsModule(getModuleDeployment(1));
+        ear.addAsModule(getModuleDeployment(2));
+        ear.addAsManifestResource("application-modules-benchmark.xml", "application.xml");
+        ear.addAsResource("appengine-application-modules-benchmark.xml", "appengine-application.xml");
+        return ear;
+    }
+
+    private static WebArchive getModuleDeployment(int module) {
+        TestContext context = new TestContext("module" + module).setSubdeployment(true).setWebXmlFile("web-modules-benchmark.xml");
+        if (module > 1) {
+            // only module #1 is default
+            context.setAppEngineWebXmlFile("appengine-web-modules-benchmark-m2.xml");
+        }
+        WebArchive war = getBenchmarkDeployment(context);
+        war.addClass(ModuleHopServlet.class);
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(10)
+    public void testHops(@ArquillianResource URL url) throws Exception {
+        for (int size : getIntValues("benchmark.modules.sizes", "100,10000")) {
+            for (int threads : getIntValues("benchmark.modules.threads", "1,4")) {
+                double direct = Double.NaN;
+                for (int hops : getIntValues("benchmark.modules.hops", "0,1,2")) {
+                    BenchmarkResult result = benchmarkHops(url, hops, size, threads, direct);
+                    if (hops == 0) {
+                        direct = result.getLatencyAt(50.0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(20)
+    public void testVisibility(@ArquillianResource URL url) throws Exception {
+        int rounds = Integer.parseInt(getBenchmarkProperty("benchmark.modules.visibility.rounds", "20"));
+        long timeout = Long.parseLong(getBenchmarkProperty("benchmark.modules.visibility.timeout", "30000"));
+        for (ModuleHopServlet.Store store : ModuleHopServlet.Store.values()) {
+            benchmarkVisibility(url, store, rounds, timeout);
+        }
+    }
+
+    /**
+     * @param direct p50 latency without hops, in micros, NaN if not known
+     */
+    protected BenchmarkResult benchmarkHops(URL url, int hops, final int size, int threads, double direct) throws Exception {
+        final String chain = getChain(hops);
+        final Histogram fetch = new Histogram(3);
+        try (final ModulesClient client = new ModulesClient(url, threads)) {
+            BenchmarkOptions options = getBenchmarkOptions().setThreads(threads);
+            BenchmarkResult result = measure("modules.hop", params("hops", hops, "size", size, "threads", threads), options, new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    long nanos = client.hop(chain, size);
+                    synchronized (fetch) {
+                        fetch.recordValue(nanos);
+                    }
+                }
+            });
+            if (hops > 0) {
+                result.addMetric("fetch.p50.us", fetch.getValueAtPercentile(50.0) / 1000.0);
+                result.addMetric("fetch.p99.us", fetch.getValueAtPercentile(99.0) / 1000.0);
+                if (Double.isNaN(direct) == false) {
+                    result.addMetric("hop.us", (result.getLatencyAt(50.0) - direct) / hops);
+                }
+            }
+            return report(result);
+        }
+    }
+
+    protected void benchmarkVisibility(URL url, ModuleHopServlet.Store store, int rounds, long timeout) throws Exception {
+        Map<String, Histogram> lags = new LinkedHashMap<>();
+        Map<String, double[]> throughput = new HashMap<>();
+        Map<String, Long> reads = new HashMap<>();
+        try (ModulesClient client = new ModulesClient(url, 1)) {
+            for (int i = 0; i < rounds; i++) {
+                for (Map.Entry<String, long[]> entry : client.visibility(MODULE, store, timeout).entrySet()) {
+                    String op = entry.getKey();
+                    if (lags.containsKey(op) == false) {
+                        lags.put(op, new Histogram(3));
+                        throughput.put(op, new double[rounds]);
+                        reads.put(op, 0L);
+                    }
+                    long nanos = entry.getValue()[0];
+                    lags.get(op).recordValue(nanos);
+                    double[] samples = throughput.get(op);
+                    samples[i] = 1e9 / Math.max(1, nanos);
+                    reads.put(op, reads.get(op) + entry.getValue()[1]);
+                }
+            }
+        }
+
+        BenchmarkOptions options = getBenchmarkOptions().setWarmupIterations(0).setMeasurementIterations(rounds).setInvocations(1).setThreads(1);
+        for (Map.Entry<String, Histogram> entry : lags.entrySet()) {
+            String op = entry.getKey();
+            Histogram lag = entry.getValue();
+            BenchmarkResult result = new BenchmarkResult("modules.visibility", params("store", store, "op", op), options, throughput.get(op), lag, rounds);
+            result.addMetric("lag.p50.ms", lag.getValueAtPercentile(50.0) / MS);
+            result.addMetric("lag.p99.ms", lag.getValueAtPercentile(99.0) / MS);
+            report(result.addMetric("reads", (double) reads.get(op) / rounds));
+        }
+    }
+
+    /**
+     * Alternates m2 and default, starting from the default module.
+     */
+    private static String getChain(int hops) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < hops; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append((i % 2 == 0) ? MODULE : DEFAULT_MODULE);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.prospectivesearch;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.prospectivesearch.FieldType;
+import com.google.appengine.api.prospectivesearch.ProspectiveSearchService;
+import com.google.appengine.api.prospectivesearch.ProspectiveSearchServiceFactory;
+import com.google.appengine.api.prospectivesearch.Subscription;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.support.MatchLatencyServlet;
+import org.HdrHistogram.Histogram;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Prospective search match throughput and match to callback latency, as subscriptions grow.
+ * <p/>
+ * Every subscription count (benchmark.prospectivesearch.subscriptions, e.g. 1000,10000,100000) has its own topic,
+ * which is subscribed once and kept; a partially subscribed topic is completed on the next run.
+ * Subscriptions query one of WORDS title words, so every document matches 1% of them.
+ * <p/>
+ * Match throughput results go to a slow queue, which is purged afterwards, so their delivery doesn't interfere.
+ * Callback latency is measured from match to MatchLatencyServlet invocation, for each result_batch_size
+ * (benchmark.prospectivesearch.batch.sizes), and reported as histogram of callbacks, with delivered results per second.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class ProspectiveSearchBenchmarkTest extends BenchmarkTestBase {
+    private static final String TOPIC = "benchmark-";
+    private static final String RESULT_URL = "/benchmark/match";
+    private static final String RESULT_QUEUE = "benchmark-match";
+    private static final String PURGED_RESULT_QUEUE = "benchmark-match-purged";
+    private static final String FIELD = "title";
+    private static final int WORDS = 100;
+    private static final int SUBSCRIBE_PER_REQUEST = 5000;
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment(new TestContext().setWebXmlFile("web-prospectivesearch-benchmark.xml"));
+        war.addClass(MatchLatencyServlet.class);
+        war.addAsWebInfResource("queue-prospectivesearch-benchmark.xml", "queue.xml");
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testMatch(@ArquillianResource URL url) throws Exception {
+        for (int subscriptions : getSubscriptionCounts()) {
+            subscribe(url, subscriptions);
+            invoke(url, "benchmarkMatch", subscriptions);
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testCallbackLatency(@ArquillianResource URL url) throws Exception {
+        int matches = Integer.parseInt(getBenchmarkProperty("benchmark.prospectivesearch.latency.matches", "20"));
+        for (int subscriptions : getSubscriptionCounts()) {
+            subscribe(url, subscriptions);
+            for (int batchSize : getIntValues("benchmark.prospectivesearch.batch.sizes", "1,10,100")) {
+                benchmarkCallbackLatency(url, subscriptions, matches, batchSize);
+            }
+        }
+    }
+
+    protected void benchmarkMatch(int subscriptions) throws Exception {
+        final String topic = TOPIC + subscriptions;
+        final ProspectiveSearchService service = ProspectiveSearchServiceFactory.getProspectiveSearchService();
+        final AtomicInteger counter = new AtomicInteger();
+        try {
+            benchmark("prospectivesearch.match", params("subscriptions", subscriptions), getBenchmarkOptions(), new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    Entity document = createDocument(counter.getAndIncrement());
+                    service.match(document, topic, "", RESULT_URL, PURGED_RESULT_QUEUE, ProspectiveSearchService.DEFAULT_RESULT_BATCH_SIZE, false);
+                }
+            });
+        } finally {
+            QueueFactory.getQueue(PURGED_RESULT_QUEUE).purge();
+        }
+    }
+
+    /**
+     * Each iteration matches the given number of documents and waits for all results to be delivered,
+     * throughput is delivered results per second from the first match to the last callback.
+     * Matching, polling and collecting a run are requests of their own, the callbacks may take longer than a request.
+     */
+    private void benchmarkCallbackLatency(URL url, int subscriptions, int matches, int batchSize) throws Exception {
+        BenchmarkOptions options = getBenchmarkOptions();
+        long timeout = Long.parseLong(getBenchmarkProperty("benchmark.prospectivesearch.timeout", "120000"));
+        int results = 0;
+        for (int i = 0; i < matches; i++) {
+            results += getMatchingSubscriptions(subscriptions, i);
+        }
+
+        for (int i = 0; i < options.getWarmupIterations(); i++) {
+            String run = invoke(url, "match", subscriptions, matches, batchSize);
+            waitForCallbacks(url, run, results, timeout);
+            invoke(url, "discardCallbacks", run, results);
+        }
+
+        StringBuilder runs = new StringBuilder();
+        for (int i = 0; i < options.getMeasurementIterations(); i++) {
+            String run = invoke(url, "match", subscriptions, matches, batchSize);
+            waitForCallbacks(url, run, results, timeout);
+            runs.append(runs.length() > 0 ? "," : "").append(run);
+        }
+        invoke(url, "reportCallbackLatency", subscriptions, matches, batchSize, results, runs.toString());
+    }
+
+    private void waitForCallbacks(URL url, String run, int results, long timeout) throws Exception {
+        long start = System.currentTimeMillis();
+        int delivered = Integer.parseInt(invoke(url, "countCallbackResults", run));
+        while (delivered < results) {
+            if (System.currentTimeMillis() - start > timeout) {
+                throw new IllegalStateException(String.format("Only %s of %s match results delivered in %s ms.", delivered, results, timeout));
+            }
+            sync(100);
+            delivered = Integer.parseInt(invoke(url, "countCallbackResults", run));
+        }
+    }
+
+    /**
+     * @return the run, which tags the matches' MatchLatencyServlet entities
+     */
+    protected String match(int subscriptions, int matches, int batchSize) throws Exception {
+        ProspectiveSearchService service = ProspectiveSearchServiceFactory.getProspectiveSearchService();
+        String topic = TOPIC + subscriptions;
+        String run = "match-" + System.nanoTime();
+        for (int i = 0; i < matches; i++) {
+            String key = run + MatchLatencyServlet.SEPARATOR + System.currentTimeMillis();
+            service.match(createDocument(i), topic, key, RESULT_URL, RESULT_QUEUE, batchSize, false);
+        }
+        return run;
+    }
+
+    protected int countCallbackResults(String run) {
+        return countResults(DatastoreServiceFactory.getDatastoreService().prepare(createCallbackQuery(run)).asList(FetchOptions.Builder.withDefaults()));
+    }
+
+    /**
+     * @param runs comma separated runs of the measured iterations
+     */
+    protected void reportCallbackLatency(int subscriptions, int matches, int batchSize, int results, String runs) throws Exception {
+        String[] split = runs.split(",");
+        BenchmarkOptions options = getBenchmarkOptions().setInvocations(1).setMeasurementIterations(split.length);
+        Histogram latency = new Histogram(3);
+        double[] throughput = new double[split.length];
+        for (int i = 0; i < split.length; i++) {
+            throughput[i] = collectCallbacks(split[i], results, latency);
+        }
+
+        Map<String, String> params = params("subscriptions", subscriptions, "matches", matches, "batchSize", batchSize);
+        BenchmarkResult result = new BenchmarkResult("prospectivesearch.callback.latency", params, options, throughput, latency, (long) results * throughput.length);
+        report(result.addMetric("callbacks.per.match", (double) latency.getTotalCount() / (matches * throughput.length)));
+    }
+
+    /**
+     * Deletes a warmup run's entities.
+     */
+    protected void discardCallbacks(String run, int results) {
+        collectCallbacks(run, results, new Histogram(3));
+    }
+
+    /**
+     * @return delivered results per second, from the first match to the last callback
+     */
+    private double collectCallbacks(String run, int results, Histogram latency) {
+        DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+        List<Entity> callbacks = ds.prepare(createCallbackQuery(run)).asList(FetchOptions.Builder.withDefaults());
+        Assert.assertEquals(results, countResults(callbacks));
+
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        List<Key> keys = new ArrayList<>(callbacks.size());
+        for (Entity entity : callbacks) {
+            long matched = (Long) entity.getProperty(MatchLatencyServlet.MATCHED);
+            long millis = (Long) entity.getProperty(MatchLatencyServlet.LATENCY);
+            latency.recordValue(TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis)));
+            start = Math.min(start, matched);
+            // latency is from the callback's own match
+            end = Math.max(end, matched + millis);
+            keys.add(entity.getKey());
+        }
+        ds.delete(keys);
+
+        return results * 1000.0 / Math.max(1, end - start);
+    }
+
+    private static Query createCallbackQuery(String run) {
+        return new Query(MatchLatencyServlet.KIND).setFilter(new Query.FilterPredicate(MatchLatencyServlet.RUN, Query.FilterOperator.EQUAL, run));
+    }
+
+    private static int countResults(List<Entity> callbacks) {
+        int count = 0;
+        for (Entity entity : callbacks) {
+            count += ((Long) entity.getProperty(MatchLatencyServlet.RESULTS)).intValue();
+        }
+        return count;
+    }
+
+    /**
+     * Subscriptions are added in order, so if the last one is there, the topic is complete.
+     */
+    private void subscribe(URL url, int subscriptions) throws Exception {
+        if (Boolean.parseBoolean(invoke(url, "isSubscribed", subscriptions))) {
+            return;
+        }
+        log.info(String.format(">>>> Subscribing %s queries to %s", subscriptions, TOPIC + subscriptions));
+        for (int from = 0; from < subscriptions; from += SUBSCRIBE_PER_REQUEST) {
+            invoke(url, "subscribe", subscriptions, from, Math.min(subscriptions, from + SUBSCRIBE_PER_REQUEST));
+        }
+    }
+
+    protected boolean isSubscribed(int subscriptions) {
+        return isComplete(ProspectiveSearchServiceFactory.getProspectiveSearchService(), TOPIC + subscriptions, getSubscriptionId(subscriptions - 1));
+    }
+
+    protected void subscribe(int subscriptions, int from, int to) {
+        ProspectiveSearchService service = ProspectiveSearchServiceFactory.getProspectiveSearchService();
+        Map<String, FieldType> schema = Collections.singletonMap(FIELD, FieldType.STRING);
+        for (int i = from; i < to; i++) {
+            service.subscribe(TOPIC + subscriptions, getSubscriptionId(i), 0, FIELD + ":" + getWord(i), schema);
+        }
+    }
+
+    private static boolean isComplete(ProspectiveSearchService service, String topic, String lastId) {
+        // listing subscriptions of an unknown topic fails, and the SDK lists topics from the first one, whatever the start
+        if (service.listTopics(topic, ProspectiveSearchService.DEFAULT_LIST_TOPICS_MAX_RESULTS).contains(topic) == false) {
+            return false;
+        }
+        List<Subscription> last = service.listSubscriptions(topic, lastId, 1, 0);
+        return last.isEmpty() == false && lastId.equals(last.get(0).getId());
+    }
+
+    private static String getSubscriptionId(int i) {
+        return "sub-" + i;
+    }
+
+    private static String getWord(int i) {
+        return "word" + (i % WORDS);
+    }
+
+    private static Entity createDocument(int i) {
+        Entity document = new Entity("article");
+        document.setProperty(FIELD, getWord(i));
+        return document;
+    }
+
+    /**
+     * Number of subscriptions matching the i-th document.
+     */
+    private static int getMatchingSubscriptions(int subscriptions, int i) {
+        int word = i % WORDS;
+        return subscriptions / WORDS + ((word < subscriptions % WORDS) ? 1 : 0);
+    }
+
+    private static int[] getSubscriptionCounts() {
+        return getIntValues("benchmark.prospectivesearch.subscriptions", "1000,10000");
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.search;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.appengine.api.search.Cursor;
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.GetRequest;
+import com.google.appengine.api.search.GetResponse;
+import com.google.appengine.api.search.Index;
+import com.google.appengine.api.search.IndexSpec;
+import com.google.appengine.api.search.PutResponse;
+import com.google.appengine.api.search.Query;
+import com.google.appengine.api.search.QueryOptions;
+import com.google.appengine.api.search.Results;
+import com.google.appengine.api.search.ScoredDocument;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.appengine.api.search.SortExpression;
+import com.google.appengine.api.search.SortOptions;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Search API indexing, query and cursor paging, as the index grows.
+ * <p/>
+ * Corpus indexes (benchmark.search.corpus.sizes, e.g. 10000,100000) are generated by SearchCorpus,
+ * loaded once and kept; a partially loaded corpus is completed on the next run.
+ * Index.put is measured in batches up to 200 documents, into a separate index which is emptied afterwards.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class SearchBenchmarkTest extends BenchmarkTestBase {
+    private static final String PUT_INDEX = "benchmark-put";
+    private static final String CORPUS_INDEX = "benchmark-corpus-";
+    private static final int LOAD_PER_REQUEST = 5000;
+    private static final int DELETE_BATCHES_PER_REQUEST = 20;
+    private static final int GEO_DISTANCE = 1000000; // meters
+
+    protected enum QueryType {
+        TEXT,
+        NUMERIC,
+        GEO,
+        SORT
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        return getBenchmarkDeployment().addClass(SearchCorpus.class);
+    }
+
+    @Test
+    @RunAsClient
+    public void testPut(@ArquillianResource URL url) throws Exception {
+        try {
+            for (int batchSize : getIntValues("benchmark.search.put.batch.sizes", "1,10,100,200")) {
+                invoke(url, "benchmarkPut", batchSize);
+            }
+        } finally {
+            while (Boolean.parseBoolean(invoke(url, "deleteAll", PUT_INDEX)) == false) {
+                log.info(String.format(">>>> Deleting documents of %s", PUT_INDEX));
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testQueries(@ArquillianResource URL url) throws Exception {
+        for (int size : getCorpusSizes()) {
+            loadCorpus(url, size);
+            for (QueryType type : QueryType.values()) {
+                for (int limit : getIntValues("benchmark.search.query.limits", "20,100")) {
+                    invoke(url, "benchmarkQuery", type, size, limit);
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testCursorPaging(@ArquillianResource URL url) throws Exception {
+        int pages = Integer.parseInt(getBenchmarkProperty("benchmark.search.query.pages", "5"));
+        for (int size : getCorpusSizes()) {
+            loadCorpus(url, size);
+            for (int pageSize : getIntValues("benchmark.search.page.sizes", "20,100")) {
+                invoke(url, "benchmarkCursorPaging", size, pages, pageSize);
+            }
+        }
+    }
+
+    protected void benchmarkPut(final int batchSize) throws Exception {
+        if (batchSize < 1 || batchSize > SearchCorpus.MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + SearchCorpus.MAX_BATCH_SIZE + ": " + batchSize);
+        }
+        final Index index = getIndex(PUT_INDEX);
+        final SearchCorpus corpus = new SearchCorpus("put-" + batchSize + "-");
+        final AtomicInteger counter = new AtomicInteger();
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(batchSize);
+        benchmark("search.put", params("batchSize", batchSize), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                int from = counter.getAndAdd(batchSize);
+                PutResponse response = index.put(corpus.createDocuments(from, from + batchSize));
+                Assert.assertEquals(batchSize, response.getIds().size());
+            }
+        });
+    }
+
+    protected void benchmarkQuery(QueryType type, int size, int limit) throws Exception {
+        final Index index = getIndex(CORPUS_INDEX + size);
+        final Query query = createQuery(type, size, QueryOptions.newBuilder().setLimit(limit));
+        benchmark("search.query", params("type", type, "size", size, "limit", limit), getBenchmarkOptions(), new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                Results<ScoredDocument> results = index.search(query);
+                Assert.assertTrue(results.getNumberReturned() > 0);
+            }
+        });
+    }
+
+    /**
+     * Each invocation walks the given number of pages of a text query matching the whole corpus,
+     * every page is a new search from the previous cursor.
+     */
+    protected void benchmarkCursorPaging(int size, final int pages, final int pageSize) throws Exception {
+        if (pages * pageSize > size) {
+            throw new IllegalArgumentException(String.format("Corpus of size %s is too small for %s pages of %s", size, pages, pageSize));
+        }
+        final Index index = getIndex(CORPUS_INDEX + size);
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(pages);
+        benchmark("search.query.paging", params("size", size, "pageSize", pageSize), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                Cursor cursor = Cursor.newBuilder().build();
+                for (int i = 0; i < pages; i++) {
+                    QueryOptions.Builder options = QueryOptions.newBuilder().setLimit(pageSize).setCursor(cursor);
+                    Results<ScoredDocument> results = index.search(Query.newBuilder().setOptions(options).build("textfield:text"));
+                    Assert.assertEquals(pageSize, results.getNumberReturned());
+                    cursor = results.getCursor();
+                }
+            }
+        });
+    }
+
+    /**
+     * Text, numeric and sort queries match 1% of the corpus, geo query roughly as much.
+     */
+    protected static Query createQuery(QueryType type, int size, QueryOptions.Builder options) {
+        switch (type) {
+            case TEXT:
+                return Query.newBuilder().setOptions(options).build("textfield:category7");
+            case NUMERIC:
+                int from = size / 2;
+                return Query.newBuilder().setOptions(options).build(String.format("numfield >= %s AND numfield < %s", from, from + Math.max(1, size / SearchCorpus.CATEGORIES)));
+            case GEO:
+                return Query.newBuilder().setOptions(options).build(String.format("distance(geofield, geopoint(0, 0)) < %s", GEO_DISTANCE));
+            case SORT:
+                SortExpression sort = SortExpression.newBuilder()
+                    .setExpression("numfield")
+                    .setDirection(SortExpression.SortDirection.DESCENDING)
+                    .setDefaultValueNumeric(0)
+                    .build();
+                options.setSortOptions(SortOptions.newBuilder().addSortExpression(sort).setLimit(Math.min(size, 10000)));
+                return Query.newBuilder().setOptions(options).build("textfield:category7");
+            default:
+                throw new IllegalArgumentException("Unknown query type: " + type);
+        }
+    }
+
+    /**
+     * Documents are put in order, so if the last one is there, the corpus is complete.
+     */
+    private void loadCorpus(URL url, int size) throws Exception {
+        if (Boolean.parseBoolean(invoke(url, "isCorpusLoaded", size))) {
+            return;
+        }
+        log.info(String.format(">>>> Loading %s documents into %s", size, CORPUS_INDEX + size));
+        for (int from = 0; from < size; from += LOAD_PER_REQUEST) {
+            invoke(url, "loadCorpus", size, from, Math.min(size, from + LOAD_PER_REQUEST));
+        }
+        sync();
+    }
+
+    protected boolean isCorpusLoaded(int size) {
+        return getIndex(CORPUS_INDEX + size).get(new SearchCorpus("doc").getId(size - 1)) != null;
+    }
+
+    protected void loadCorpus(int size, int from, int to) {
+        Index index = getIndex(CORPUS_INDEX + size);
+        SearchCorpus corpus = new SearchCorpus("doc");
+        for (int i = from; i < to; i += SearchCorpus.MAX_BATCH_SIZE) {
+            index.put(corpus.createDocuments(i, Math.min(to, i + SearchCorpus.MAX_BATCH_SIZE)));
+        }
+    }
+
+    /**
+     * Deletes up to DELETE_BATCHES_PER_REQUEST batches of the index's documents.
+     *
+     * @return true if there was nothing left to delete
+     */
+    protected boolean deleteAll(String name) {
+        Index index = getIndex(name);
+        GetRequest request = GetRequest.newBuilder().setReturningIdsOnly(true).setLimit(SearchCorpus.MAX_BATCH_SIZE).build();
+        for (int i = 0; i < DELETE_BATCHES_PER_REQUEST; i++) {
+            GetResponse<Document> response = index.getRange(request);
+            if (response.getResults().isEmpty()) {
+                return true;
+            }
+            List<String> ids = new ArrayList<>();
+            for (Document document : response) {
+                ids.add(document.getId());
+            }
+            index.delete(ids);
+        }
+        return false;
+    }
+
+    // not in @Before, the search service cannot be created on the client side
+    private static Index getIndex(String name) {
+        return SearchServiceFactory.getSearchService().getIndex(IndexSpec.newBuilder().setName(name));
+    }
+
+    private static int[] getCorpusSizes() {
+        return getIntValues("benchmark.search.corpus.sizes", "1000,10000");
+    }
+}
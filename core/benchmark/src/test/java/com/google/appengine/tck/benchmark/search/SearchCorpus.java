@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.search;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Field;
+import com.google.appengine.api.search.GeoPoint;
+
+/**
+ * Deterministic document corpus, generalized from SearchTestBase.addDocs.
+ * <p/>
+ * Document i has the same text, number, date, html, atom and geo fields on every run,
+ * so a corpus of any size can be (re)loaded in parts and queried with known selectivity:
+ * each "categoryN" term and each 1% numfield range match 1% of the corpus.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class SearchCorpus {
+    public static final int CATEGORIES = 100;
+    public static final int MAX_BATCH_SIZE = 200;
+
+    private static final String[] WORDS = {
+        "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet", "kilo", "lima", "mike",
+        "november", "oscar", "papa", "quebec", "romeo", "sierra", "tango", "uniform", "victor", "whiskey", "xray", "yankee", "zulu"
+    };
+    private static final int WORDS_PER_DOCUMENT = 10;
+    private static final long START_DATE = 1420070400000L; // 2015-01-01
+
+    private final String prefix;
+
+    public SearchCorpus(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getId(int i) {
+        return prefix + i;
+    }
+
+    public Document createDocument(int i) {
+        Random random = new Random(i);
+        StringBuilder text = new StringBuilder("text with num ").append(i).append(" category").append(i % CATEGORIES);
+        for (int w = 0; w < WORDS_PER_DOCUMENT; w++) {
+            text.append(" ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        Document.Builder builder = Document.newBuilder().setId(getId(i));
+        builder.addField(Field.newBuilder().setName("textfield").setText(text.toString()));
+        builder.addField(Field.newBuilder().setName("numfield").setNumber(i));
+        builder.addField(Field.newBuilder().setName("datefield").setDate(new Date(START_DATE + TimeUnit.MINUTES.toMillis(i))));
+        builder.addField(Field.newBuilder().setName("htmlfield").setHTML("<B>html</B> " + i));
+        builder.addField(Field.newBuilder().setName("atomfield").setAtom("atom" + i + ".com"));
+        // uniformly spread, away from the poles
+        builder.addField(Field.newBuilder().setName("geofield").setGeoPoint(new GeoPoint(-80 + 160 * random.nextDouble(), -180 + 360 * random.nextDouble())));
+        return builder.build();
+    }
+
+    /**
+     * Documents [from, to).
+     */
+    public List<Document> createDocuments(int from, int to) {
+        List<Document> documents = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            documents.add(createDocument(i));
+        }
+        return documents;
+    }
+}
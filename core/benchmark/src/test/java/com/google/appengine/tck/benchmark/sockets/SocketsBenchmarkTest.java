@@ -0,0 +1,344 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.sockets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.support.EchoServer;
+import org.HdrHistogram.Histogram;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.junit.InSequence;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.util.logging.Level.WARNING;
+
+/**
+ * TCP and UDP socket echo throughput, round-trip latency and TCP connection setup rate.
+ * <p/>
+ * The echo server runs on the client, at benchmark.sockets.host:benchmark.sockets.port (localhost:10007);
+ * it is only started for a loopback host, otherwise the host must run its own TCP and UDP echo server, e.g. for appspot.
+ * Every benchmark runs in-container, through the Sockets API, and then on the client, as the plain JVM baseline;
+ * the side param tells them apart.
+ * <p/>
+ * One operation is one buffer of benchmark.sockets.buffer.sizes bytes (datagram.sizes for UDP) echoed on one of
+ * benchmark.sockets.threads concurrent sockets, so the latency histogram is the round-trip time.
+ * UDP replies which don't arrive within benchmark.sockets.udp.timeout ms count as lost, apart from throughput and latency.
+ * Connection setup opens, optionally echoes one byte on, and closes a new TCP connection per operation.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class SocketsBenchmarkTest extends BenchmarkTestBase {
+    private static final double MB = 1024 * 1024;
+
+    private static EchoServer server;
+
+    protected enum ConnectMode {
+        CONNECT,
+        CONNECT_ECHO
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment();
+        war.addClass(EchoServer.class);
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(10)
+    public void startEchoServer() throws Exception {
+        if (InetAddress.getByName(getHost()).isLoopbackAddress()) {
+            server = new EchoServer(getHost(), getPort());
+        } else {
+            log.info(String.format("Using remote echo server %s:%s", getHost(), getPort()));
+        }
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(20)
+    public void testTcpEcho(@ArquillianResource URL url) throws Exception {
+        benchmarkTcpEcho(url);
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(21)
+    public void testUdpEcho(@ArquillianResource URL url) throws Exception {
+        benchmarkUdpEcho(url);
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(22)
+    public void testTcpConnect(@ArquillianResource URL url) throws Exception {
+        benchmarkTcpConnect(url);
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(30)
+    public void testTcpEchoOnClient() throws Exception {
+        benchmarkTcpEcho(null);
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(31)
+    public void testUdpEchoOnClient() throws Exception {
+        benchmarkUdpEcho(null);
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(32)
+    public void testTcpConnectOnClient() throws Exception {
+        benchmarkTcpConnect(null);
+    }
+
+    @Test
+    @RunAsClient
+    @InSequence(40)
+    public void stopEchoServer() throws Exception {
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+    }
+
+    /**
+     * @param url deployment to run every point in, as a request of its own; null runs on the client
+     */
+    protected void benchmarkTcpEcho(URL url) throws Exception {
+        for (int bufferSize : getIntValues("benchmark.sockets.buffer.sizes", "64,1024,16384,65536")) {
+            for (int threads : getThreads()) {
+                if (url != null) {
+                    invoke(url, "benchmarkTcpEcho", bufferSize, threads);
+                } else {
+                    benchmarkTcpEcho(bufferSize, threads);
+                }
+            }
+        }
+    }
+
+    protected void benchmarkUdpEcho(URL url) throws Exception {
+        for (int datagramSize : getIntValues("benchmark.sockets.datagram.sizes", "64,1024,8192")) {
+            for (int threads : getThreads()) {
+                if (url != null) {
+                    invoke(url, "benchmarkUdpEcho", datagramSize, threads);
+                } else {
+                    benchmarkUdpEcho(datagramSize, threads);
+                }
+            }
+        }
+    }
+
+    protected void benchmarkTcpConnect(URL url) throws Exception {
+        for (ConnectMode mode : ConnectMode.values()) {
+            for (int threads : getThreads()) {
+                if (url != null) {
+                    invoke(url, "benchmarkTcpConnect", mode, threads);
+                } else {
+                    benchmarkTcpConnect(mode, threads);
+                }
+            }
+        }
+    }
+
+    protected void benchmarkTcpEcho(final int bufferSize, int threads) throws Exception {
+        final byte[] data = new byte[bufferSize];
+        new Random().nextBytes(data);
+        final BlockingQueue<Socket> sockets = new ArrayBlockingQueue<>(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                sockets.add(connect());
+            }
+            BenchmarkOptions options = getBenchmarkOptions().setThreads(threads);
+            BenchmarkResult result = measure("sockets.tcp.echo", params("side", getSide(), "bufferSize", bufferSize, "threads", threads), options, new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    byte[] buffer = new byte[bufferSize];
+                    Socket socket = sockets.take();
+                    try {
+                        socket.getOutputStream().write(data);
+                        socket.getOutputStream().flush();
+                        readFully(socket.getInputStream(), buffer);
+                    } finally {
+                        sockets.put(socket);
+                    }
+                }
+            });
+            report(result.addMetric("echo.mb.s", result.getScore() * bufferSize / MB));
+        } finally {
+            for (Socket socket : sockets) {
+                close(socket);
+            }
+        }
+    }
+
+    protected void benchmarkUdpEcho(final int datagramSize, int threads) throws Exception {
+        if (datagramSize < 8) {
+            throw new IllegalArgumentException("Datagrams must hold an 8 byte sequence number: " + datagramSize);
+        }
+        final int timeout = Integer.parseInt(getBenchmarkProperty("benchmark.sockets.udp.timeout", "1000"));
+        final InetSocketAddress address = new InetSocketAddress(getHost(), getPort());
+        final BlockingQueue<DatagramSocket> sockets = new ArrayBlockingQueue<>(threads);
+        final AtomicLong sequence = new AtomicLong();
+        final AtomicLong echoed = new AtomicLong();
+        final AtomicLong lost = new AtomicLong();
+        final Histogram latency = new Histogram(3);
+        try {
+            for (int i = 0; i < threads; i++) {
+                DatagramSocket socket = new DatagramSocket();
+                socket.setSoTimeout(timeout);
+                sockets.add(socket);
+            }
+            BenchmarkOperation operation = new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    long seq = sequence.incrementAndGet();
+                    byte[] data = new byte[datagramSize];
+                    ByteBuffer.wrap(data).putLong(seq);
+                    DatagramSocket socket = sockets.take();
+                    try {
+                        long start = System.nanoTime();
+                        socket.send(new DatagramPacket(data, data.length, address));
+                        // late replies to lost datagrams are skipped
+                        DatagramPacket reply = new DatagramPacket(new byte[datagramSize], datagramSize);
+                        do {
+                            socket.receive(reply);
+                        } while (ByteBuffer.wrap(reply.getData()).getLong() != seq);
+                        long nanos = System.nanoTime() - start;
+                        Assert.assertEquals(datagramSize, reply.getLength());
+                        synchronized (latency) {
+                            latency.recordValue(nanos);
+                        }
+                        echoed.incrementAndGet();
+                    } catch (SocketTimeoutException e) {
+                        lost.incrementAndGet();
+                    } finally {
+                        sockets.put(socket);
+                    }
+                }
+            };
+            String name = "sockets.udp.echo";
+            Map<String, String> params = params("side", getSide(), "datagramSize", datagramSize, "threads", threads);
+            BenchmarkOptions options = warmUp(name, params, getBenchmarkOptions().setThreads(threads), operation);
+            sequence.set(0);
+            echoed.set(0);
+            lost.set(0);
+            latency.reset();
+
+            // lost datagrams are neither operations nor latencies, each iteration's throughput only counts the echoed ones
+            double[] throughput = new double[options.getMeasurementIterations()];
+            for (int i = 0; i < throughput.length; i++) {
+                long before = echoed.get();
+                BenchmarkResult iteration = measure(name, params, options.copy().setMeasurementIterations(1), operation);
+                params = iteration.getParams();
+                throughput[i] = iteration.getScore() * (echoed.get() - before) / Math.max(1, iteration.getOperations());
+            }
+            BenchmarkResult result = new BenchmarkResult(name, params, options, throughput, latency, echoed.get());
+            result.addMetric("echo.mb.s", result.getScore() * datagramSize / MB);
+            result.addMetric("lost", lost.get());
+            report(result.addMetric("loss.ratio", lost.get() / (double) Math.max(1, sequence.get())));
+        } finally {
+            for (DatagramSocket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    protected void benchmarkTcpConnect(final ConnectMode mode, int threads) throws Exception {
+        BenchmarkOptions options = getBenchmarkOptions().setThreads(threads);
+        benchmark("sockets.tcp.connect", params("side", getSide(), "mode", mode, "threads", threads), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                try (Socket socket = connect()) {
+                    if (mode == ConnectMode.CONNECT_ECHO) {
+                        socket.getOutputStream().write(1);
+                        socket.getOutputStream().flush();
+                        Assert.assertEquals(1, socket.getInputStream().read());
+                    }
+                }
+            }
+        });
+    }
+
+    protected static Socket connect() throws IOException {
+        Socket socket = new Socket(getHost(), getPort());
+        // small echoes must not wait for Nagle's algorithm
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int r = in.read(buffer, offset, buffer.length - offset);
+            if (r == -1) {
+                throw new IOException(String.format("Echo closed after %s of %s bytes", offset, buffer.length));
+            }
+            offset += r;
+        }
+    }
+
+    private void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.log(WARNING, "Unable to close socket", e);
+        }
+    }
+
+    private String getSide() {
+        return isInContainer() ? "container" : "client";
+    }
+
+    private static String getHost() {
+        return getBenchmarkProperty("benchmark.sockets.host", "localhost");
+    }
+
+    private static int getPort() {
+        return Integer.parseInt(getBenchmarkProperty("benchmark.sockets.port", "10007"));
+    }
+
+    private static int[] getThreads() {
+        return getIntValues("benchmark.sockets.threads", "1,4");
+    }
+}
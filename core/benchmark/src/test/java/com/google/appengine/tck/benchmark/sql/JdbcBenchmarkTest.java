@@ -0,0 +1,330 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.sql;
+
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.env.Environment;
+import com.google.appengine.tck.lib.LibUtils;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.util.logging.Level.WARNING;
+
+/**
+ * JDBC insert, fetch and connection acquisition throughput.
+ * <p/>
+ * By default this runs against an embedded in-memory H2 database in MySQL mode, so no outside service is needed;
+ * such a database only lives in one instance's JVM, while creating, loading, benchmarking and dropping a table
+ * are requests of their own, so with an h2:mem url the insert and fetch benchmarks only run on the single instance SDK.
+ * For Cloud SQL, or any other environment, set benchmark.sql.driver (com.mysql.jdbc.GoogleDriver, enabled in appengine-web.xml),
+ * benchmark.sql.url (e.g. jdbc:google:mysql://my_project:instance/db), benchmark.sql.user and benchmark.sql.password.
+ * <p/>
+ * Inserts commit benchmark.sql.batch.sizes rows per invocation, with a new prepared statement per row,
+ * a reused prepared statement, or addBatch / executeBatch; throughput is in rows/s.
+ * Fetches read the whole table with each of benchmark.sql.fetch.sizes (0 is the driver's default,
+ * MySQL Connector/J only streams with Integer.MIN_VALUE or useCursorFetch=true).
+ * Connection acquisition opens and closes a connection per invocation, compared to queries on pooled connections.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class JdbcBenchmarkTest extends BenchmarkTestBase {
+    private static final String INSERT_TABLE = "tck_benchmark_insert";
+    private static final String FETCH_TABLE = "tck_benchmark_fetch";
+    private static final String DEFAULT_URL = "jdbc:h2:mem:benchmark;MODE=MySQL;DB_CLOSE_DELAY=-1";
+    private static final int LOAD_BATCH_SIZE = 1000;
+    private static final int LOAD_PER_REQUEST = 20000;
+    private static final int CATEGORIES = 100;
+
+    protected enum InsertMode {
+        STATEMENT,
+        PREPARED,
+        BATCH
+    }
+
+    protected enum ConnectMode {
+        CONNECT,
+        CONNECT_QUERY,
+        POOLED_QUERY
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        TestContext context = new TestContext().setWebXmlFile("web-benchmark.xml");
+        context.setAppEngineWebXmlFile("appengine-web-sql-benchmark.xml");
+        WebArchive war = getBenchmarkDeployment(context);
+        new LibUtils().addLibrary(war, "com.h2database", "h2");
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testInsert(@ArquillianResource URL url) throws Exception {
+        assumeSharedDatabase();
+        invoke(url, "createTable", INSERT_TABLE);
+        try {
+            for (InsertMode mode : InsertMode.values()) {
+                for (int batchSize : getIntValues("benchmark.sql.batch.sizes", "1,10,100,1000")) {
+                    invoke(url, "benchmarkInsert", mode, batchSize);
+                }
+            }
+        } finally {
+            invoke(url, "dropTable", INSERT_TABLE);
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testFetch(@ArquillianResource URL url) throws Exception {
+        assumeSharedDatabase();
+        for (int rows : getIntValues("benchmark.sql.fetch.rows", "10000,100000")) {
+            invoke(url, "createTable", FETCH_TABLE);
+            try {
+                for (int from = 0; from < rows; from += LOAD_PER_REQUEST) {
+                    invoke(url, "load", FETCH_TABLE, from, Math.min(rows, from + LOAD_PER_REQUEST));
+                }
+                for (int fetchSize : getIntValues("benchmark.sql.fetch.sizes", "0,10,100,1000")) {
+                    invoke(url, "benchmarkFetch", rows, fetchSize);
+                }
+            } finally {
+                invoke(url, "dropTable", FETCH_TABLE);
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testConnect(@ArquillianResource URL url) throws Exception {
+        for (ConnectMode mode : ConnectMode.values()) {
+            for (int threads : getIntValues("benchmark.sql.connect.threads", "1,4")) {
+                invoke(url, "benchmarkConnect", mode, threads);
+            }
+        }
+    }
+
+    /**
+     * Inserts into an empty table, which is truncated afterwards.
+     */
+    protected void benchmarkInsert(final InsertMode mode, final int batchSize) throws Exception {
+        try (Connection conn = getConnection()) {
+            measureInsert(conn, mode, batchSize);
+            execute(conn, "TRUNCATE TABLE " + INSERT_TABLE);
+        }
+    }
+
+    private void measureInsert(final Connection conn, final InsertMode mode, final int batchSize) throws Exception {
+        final String sql = getInsertCommand(INSERT_TABLE);
+        final AtomicLong ids = new AtomicLong();
+        conn.setAutoCommit(false);
+        try (final PreparedStatement reused = conn.prepareStatement(sql)) {
+            // a connection is not shared between threads
+            BenchmarkOptions options = getBenchmarkOptions().setThreads(1).setOperationsPerInvocation(batchSize);
+            benchmark("sql.insert", params("mode", mode, "batchSize", batchSize), options, new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    for (int i = 0; i < batchSize; i++) {
+                        long id = ids.getAndIncrement();
+                        if (mode == InsertMode.STATEMENT) {
+                            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                                bind(ps, id);
+                                Assert.assertEquals(1, ps.executeUpdate());
+                            }
+                        } else if (mode == InsertMode.PREPARED) {
+                            bind(reused, id);
+                            Assert.assertEquals(1, reused.executeUpdate());
+                        } else {
+                            bind(reused, id);
+                            reused.addBatch();
+                        }
+                    }
+                    if (mode == InsertMode.BATCH) {
+                        Assert.assertEquals(batchSize, reused.executeBatch().length);
+                    }
+                    conn.commit();
+                }
+            });
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    protected void benchmarkFetch(final int rows, final int fetchSize) throws Exception {
+        try (Connection conn = getConnection()) {
+            measureFetch(conn, rows, fetchSize);
+        }
+    }
+
+    private void measureFetch(final Connection conn, final int rows, final int fetchSize) throws Exception {
+        final String sql = "SELECT * FROM " + FETCH_TABLE;
+        BenchmarkOptions options = getBenchmarkOptions().setThreads(1).setOperationsPerInvocation(rows);
+        benchmark("sql.fetch", params("rows", rows, "fetchSize", fetchSize), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                try (Statement statement = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    statement.setFetchSize(fetchSize);
+                    int count = 0;
+                    try (ResultSet rs = statement.executeQuery(sql)) {
+                        while (rs.next()) {
+                            rs.getLong(1);
+                            rs.getString(2);
+                            rs.getInt(3);
+                            rs.getDouble(4);
+                            rs.getTimestamp(5);
+                            count++;
+                        }
+                    }
+                    Assert.assertEquals(rows, count);
+                }
+            }
+        });
+    }
+
+    protected void benchmarkConnect(final ConnectMode mode, int threads) throws Exception {
+        final BlockingQueue<Connection> pool = new ArrayBlockingQueue<>(threads);
+        if (mode == ConnectMode.POOLED_QUERY) {
+            for (int i = 0; i < threads; i++) {
+                pool.add(getConnection());
+            }
+        }
+        try {
+            BenchmarkOptions options = getBenchmarkOptions().setThreads(threads);
+            benchmark("sql.connect", params("mode", mode, "threads", threads), options, new BenchmarkOperation() {
+                public void invoke() throws Exception {
+                    if (mode == ConnectMode.POOLED_QUERY) {
+                        Connection conn = pool.take();
+                        try {
+                            selectOne(conn);
+                        } finally {
+                            pool.put(conn);
+                        }
+                    } else {
+                        try (Connection conn = getConnection()) {
+                            if (mode == ConnectMode.CONNECT_QUERY) {
+                                selectOne(conn);
+                            }
+                        }
+                    }
+                }
+            });
+        } finally {
+            for (Connection conn : pool) {
+                close(conn);
+            }
+        }
+    }
+
+    /**
+     * Tables must outlive a single request, which an in-memory database only does on a single instance.
+     */
+    private void assumeSharedDatabase() {
+        if (getBenchmarkProperty("benchmark.sql.url", DEFAULT_URL).startsWith("jdbc:h2:mem:")) {
+            assumeEnvironment(Environment.SDK);
+        }
+    }
+
+    protected static Connection getConnection() throws Exception {
+        Class.forName(getBenchmarkProperty("benchmark.sql.driver", "org.h2.Driver"));
+        String url = getBenchmarkProperty("benchmark.sql.url", DEFAULT_URL);
+        return DriverManager.getConnection(url, getBenchmarkProperty("benchmark.sql.user", ""), getBenchmarkProperty("benchmark.sql.password", ""));
+    }
+
+    protected static void createTable(String table) throws Exception {
+        try (Connection conn = getConnection()) {
+            execute(conn, "DROP TABLE IF EXISTS " + table);
+            execute(conn, String.format("CREATE TABLE %s (ID BIGINT NOT NULL PRIMARY KEY, NAME VARCHAR(255), CATEGORY INT, AMOUNT DOUBLE, CREATED TIMESTAMP)", table));
+        }
+    }
+
+    protected static void dropTable(String table) throws Exception {
+        try (Connection conn = getConnection()) {
+            execute(conn, "DROP TABLE IF EXISTS " + table);
+        }
+    }
+
+    /**
+     * Inserts the rows with ids from (inclusive) to (exclusive).
+     */
+    protected static void load(String table, int from, int to) throws Exception {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(getInsertCommand(table))) {
+                for (int i = from; i < to; i++) {
+                    bind(ps, i);
+                    ps.addBatch();
+                    if ((i + 1 - from) % LOAD_BATCH_SIZE == 0 || i == to - 1) {
+                        ps.executeBatch();
+                        conn.commit();
+                    }
+                }
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static String getInsertCommand(String table) {
+        return String.format("INSERT INTO %s (ID, NAME, CATEGORY, AMOUNT, CREATED) VALUES (?, ?, ?, ?, ?)", table);
+    }
+
+    private static void bind(PreparedStatement ps, long id) throws SQLException {
+        ps.setLong(1, id);
+        ps.setString(2, "name-" + id);
+        ps.setInt(3, (int) (id % CATEGORIES));
+        ps.setDouble(4, id * 0.01);
+        ps.setTimestamp(5, new Timestamp(System.currentTimeMillis()));
+    }
+
+    private static void selectOne(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            try (ResultSet rs = statement.executeQuery("SELECT 1")) {
+                Assert.assertTrue(rs.next());
+            }
+        }
+    }
+
+    private static void execute(Connection conn, String command) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.executeUpdate(command);
+        }
+    }
+
+    private void close(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            log.log(WARNING, "Unable to close db connection", e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import com.google.api.server.spi.config.Api;
+import com.google.api.server.spi.config.ApiMethod;
+import com.google.api.server.spi.config.Named;
+import com.google.appengine.tck.endpoints.support.BazTransformer;
+
+import static com.google.api.server.spi.config.ApiMethod.HttpMethod;
+
+/**
+ * Endpoints benchmark API, Bar is transformed by its own @ApiTransformer, Baz by the transformer declared here.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Api(
+    name = BenchmarkEndPoint.NAME,
+    version = BenchmarkEndPoint.VERSION,
+    description = "Used for benchmarking request and response serialization.",
+    transformers = { BazTransformer.class })
+public class BenchmarkEndPoint {
+    public static final String NAME = "benchmarkEndPoint";
+    public static final String VERSION = "v1";
+
+    @ApiMethod(name = "payload.get", path = "payload", httpMethod = HttpMethod.GET)
+    public NestedPayload get(@Named("size") int size, @Named("depth") int depth) {
+        return NestedPayload.create(size, depth);
+    }
+
+    @ApiMethod(name = "payload.echo", path = "payload/echo", httpMethod = HttpMethod.POST)
+    public NestedPayload echo(NestedPayload payload) {
+        return payload;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Client side of BenchmarkInvokerServlet.
+ * Kept out of the test class, so HttpClient is not needed in-container.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BenchmarkInvokerClient {
+    public static Invocation invoke(URL root, Class<?> testClass, String method, Object... args) throws Exception {
+        List<NameValuePair> params = new ArrayList<>();
+        params.add(new BasicNameValuePair(BenchmarkInvokerServlet.CLASS, testClass.getName()));
+        params.add(new BasicNameValuePair(BenchmarkInvokerServlet.METHOD, method));
+        for (Object arg : args) {
+            params.add(new BasicNameValuePair(BenchmarkInvokerServlet.ARG, String.valueOf(arg)));
+        }
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            HttpPost post = new HttpPost(new URL(root, "benchmark/invoke").toURI());
+            post.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
+            HttpResponse response = client.execute(post);
+            String content = EntityUtils.toString(response.getEntity());
+            int status = response.getStatusLine().getStatusCode();
+            if (status != 200) {
+                throw new IOException(String.format("Invoking %s.%s failed with %s:%n%s", testClass.getSimpleName(), method, status, content));
+            }
+
+            JSONObject json = new JSONObject(content);
+            JSONArray array = json.getJSONArray("keys");
+            List<String> keys = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                keys.add(array.getString(i));
+            }
+            return new Invocation(json.isNull("value") ? null : json.getString("value"), keys);
+        }
+    }
+
+    public static class Invocation {
+        private final String value;
+        private final List<String> keys;
+
+        private Invocation(String value, List<String> keys) {
+            this.value = value;
+            this.keys = keys;
+        }
+
+        /**
+         * String form of the method's return value, null for void.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Keys of the results reported by the method.
+         */
+        public List<String> getKeys() {
+            return keys;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.tck.base.TestBase;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Runs a single benchmark method of an in-container test class, so every point of a sweep is its own request
+ * and gets the whole request deadline.
+ * <p/>
+ * Only BenchmarkTestBase subclasses are accepted, and only their non-private methods declared below TestBase can be invoked.
+ * The test class is instantiated and its @Before and @After methods run around the method, like JUnit would;
+ * arguments are converted from their string form to int, long, double, boolean, String or enum parameters.
+ * Writes back a JSON object with the method's return value and the keys of the results it reported,
+ * see BenchmarkResultsServlet; failures are a 500 with the stack trace.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BenchmarkInvokerServlet extends HttpServlet {
+    public static final String CLASS = "class";
+    public static final String METHOD = "method";
+    public static final String ARG = "arg";
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String[] args = req.getParameterValues(ARG);
+        if (args == null) {
+            args = new String[0];
+        }
+
+        String className = req.getParameter(CLASS);
+        Class<?> testClass = null;
+        if (className != null) {
+            try {
+                testClass = Class.forName(className, false, Thread.currentThread().getContextClassLoader());
+            } catch (ClassNotFoundException ignored) {
+            }
+        }
+        if (testClass == null || BenchmarkTestBase.class.isAssignableFrom(testClass) == false) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Not a benchmark test class: " + className);
+            return;
+        }
+
+        Object value;
+        List<String> keys;
+        BenchmarkResultsServlet.begin();
+        try {
+            value = invoke(testClass.getDeclaredConstructor().newInstance(), req.getParameter(METHOD), args);
+        } catch (Throwable t) {
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            resp.setContentType("text/plain");
+            t.printStackTrace(resp.getWriter());
+            return;
+        } finally {
+            keys = BenchmarkResultsServlet.end();
+        }
+
+        try {
+            JSONObject json = new JSONObject();
+            json.put("value", (value != null) ? String.valueOf(value) : JSONObject.NULL);
+            json.put("keys", new JSONArray(keys));
+            resp.setContentType("application/json");
+            resp.setCharacterEncoding("UTF-8");
+            resp.getWriter().write(json.toString());
+        } catch (JSONException e) {
+            throw new ServletException(e);
+        }
+    }
+
+    private static Object invoke(Object test, String name, String[] args) throws Throwable {
+        Method method = findMethod(test.getClass(), name, args.length);
+        Object[] values = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            values[i] = convert(method.getParameterTypes()[i], args[i]);
+        }
+
+        List<Method> befores = getAnnotated(test.getClass(), Before.class);
+        List<Method> afters = getAnnotated(test.getClass(), After.class);
+        // superclass @Before methods first, subclass @After methods first
+        Collections.reverse(afters);
+        Throwable failure = null;
+        Object value = null;
+        try {
+            for (Method before : befores) {
+                call(test, before);
+            }
+            value = call(test, method, values);
+        } catch (Throwable t) {
+            failure = t;
+        }
+        // every @After runs, the first failure wins and the rest are attached to it
+        for (Method after : afters) {
+            try {
+                call(test, after);
+            } catch (Throwable t) {
+                if (failure == null) {
+                    failure = t;
+                } else {
+                    failure.addSuppressed(t);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return value;
+    }
+
+    private static Object call(Object test, Method method, Object... values) throws Throwable {
+        method.setAccessible(true);
+        try {
+            return method.invoke(test, values);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Only non-private methods of the benchmark's own hierarchy; TestBase and its superclasses are not searched.
+     */
+    private static Method findMethod(Class<?> testClass, String name, int parameters) throws NoSuchMethodException {
+        for (Class<?> current = testClass; current != null && current != TestBase.class; current = current.getSuperclass()) {
+            for (Method method : current.getDeclaredMethods()) {
+                if (method.getName().equals(name) && method.getParameterTypes().length == parameters && Modifier.isPrivate(method.getModifiers()) == false) {
+                    return method;
+                }
+            }
+        }
+        throw new NoSuchMethodException(String.format("No method %s with %s parameters in %s", name, parameters, testClass.getName()));
+    }
+
+    /**
+     * From the top of the hierarchy down.
+     */
+    private static List<Method> getAnnotated(Class<?> testClass, Class<? extends Annotation> annotation) {
+        List<Method> methods = new ArrayList<>();
+        for (Class<?> current = testClass; current != null; current = current.getSuperclass()) {
+            List<Method> declared = new ArrayList<>();
+            for (Method method : current.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(annotation)) {
+                    declared.add(method);
+                }
+            }
+            methods.addAll(0, declared);
+        }
+        return methods;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object convert(Class<?> type, String arg) {
+        if (type == int.class || type == Integer.class) {
+            return Integer.valueOf(arg);
+        } else if (type == long.class || type == Long.class) {
+            return Long.valueOf(arg);
+        } else if (type == double.class || type == Double.class) {
+            return Double.valueOf(arg);
+        } else if (type == boolean.class || type == Boolean.class) {
+            return Boolean.valueOf(arg);
+        } else if (type.isEnum()) {
+            return Enum.valueOf(type.asSubclass(Enum.class), arg);
+        } else if (type == String.class) {
+            return arg;
+        }
+        throw new IllegalArgumentException("Unsupported benchmark parameter type: " + type.getName());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.appengine.tck.benchmark.harness.BenchmarkReporter;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.junit.Assert;
+
+/**
+ * Client side of BenchmarkResultsServlet.
+ * Kept out of the test class, so HttpClient is not needed in-container.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BenchmarkResultsClient {
+    public static void collect(URL root, List<String> keys, BenchmarkReporter reporter) throws Exception {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<NameValuePair> params = new ArrayList<>();
+        for (String key : keys) {
+            params.add(new BasicNameValuePair(BenchmarkResultsServlet.KEY, key));
+        }
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            HttpPost post = new HttpPost(new URL(root, "benchmark/results").toURI());
+            post.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
+            HttpResponse response = client.execute(post);
+            String content = EntityUtils.toString(response.getEntity());
+            Assert.assertEquals(content, 200, response.getStatusLine().getStatusCode());
+
+            JSONArray results = new JSONArray(content);
+            for (int i = 0; i < results.length(); i++) {
+                reporter.write(results.getJSONObject(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Hands over in-container benchmark results to the client, as JSON array.
+ * <p/>
+ * Results are kept in datastore until fetched, since most environments don't allow writing files.
+ * Every result is its own root entity, so concurrent benchmarks don't contend on a single entity group;
+ * the keys of the results reported during a BenchmarkInvokerServlet request are handed to the client,
+ * which fetches them by key at the end, a strongly consistent read.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BenchmarkResultsServlet extends HttpServlet {
+    public static final String KEY = "key";
+
+    private static final String KIND = "BenchmarkResult";
+    private static final ThreadLocal<List<String>> STORED = new ThreadLocal<>();
+
+    static void begin() {
+        STORED.set(new ArrayList<String>());
+    }
+
+    static List<String> end() {
+        List<String> keys = STORED.get();
+        STORED.remove();
+        return keys;
+    }
+
+    public static void store(JSONObject json) {
+        List<String> keys = STORED.get();
+        if (keys == null) {
+            throw new IllegalStateException("In-container benchmarks must run through BenchmarkTestBase.invoke, otherwise their results are lost.");
+        }
+        Entity entity = new Entity(KIND);
+        entity.setUnindexedProperty("json", new Text(json.toString()));
+        keys.add(KeyFactory.keyToString(DatastoreServiceFactory.getDatastoreService().put(entity)));
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        List<Key> keys = new ArrayList<>();
+        String[] values = req.getParameterValues(KEY);
+        if (values != null) {
+            for (String value : values) {
+                keys.add(KeyFactory.stringToKey(value));
+            }
+        }
+
+        DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+        Map<Key, Entity> entities = ds.get(keys);
+        JSONArray results = new JSONArray();
+        try {
+            for (Key key : keys) {
+                Entity entity = entities.get(key);
+                if (entity == null) {
+                    throw new ServletException("No such benchmark result: " + key);
+                }
+                results.put(new JSONObject(((Text) entity.getProperty("json")).getValue()));
+            }
+        } catch (JSONException e) {
+            throw new ServletException(e);
+        }
+        ds.delete(keys);
+
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.getWriter().write(results.toString());
+    }
+}
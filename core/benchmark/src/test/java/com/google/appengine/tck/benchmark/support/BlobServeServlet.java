@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+
+/**
+ * Serves blob by key, passing on the Range header if any.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BlobServeServlet extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        BlobKey blobKey = new BlobKey(request.getParameter("key"));
+        String range = request.getHeader("Range");
+        if (range != null) {
+            BlobstoreServiceFactory.getBlobstoreService().serve(blobKey, range, response);
+        } else {
+            BlobstoreServiceFactory.getBlobstoreService().serve(blobKey, response);
+        }
+    }
+}
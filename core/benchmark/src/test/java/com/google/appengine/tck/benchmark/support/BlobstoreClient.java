@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Client side blobstore uploads and downloads, with a connection per concurrent client.
+ * <p/>
+ * Unlike the blobstore tests' FileUploader, files are streamed from disk.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BlobstoreClient implements Closeable {
+    private final URL root;
+    private final CloseableHttpClient client;
+
+    public BlobstoreClient(URL root, int connections) {
+        this.root = root;
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(connections);
+        manager.setDefaultMaxPerRoute(connections);
+        this.client = HttpClients.custom().setConnectionManager(manager).build();
+    }
+
+    public String getUploadUrl() throws IOException {
+        HttpResponse response = client.execute(new HttpGet(new URL(root, "benchmark/upload/url").toExternalForm()));
+        return checkStatus(response, 200).trim();
+    }
+
+    /**
+     * Uploads the file to a new upload url.
+     *
+     * @return the blob key
+     */
+    public String upload(File file) throws IOException {
+        HttpPost post = new HttpPost(getUploadUrl());
+        post.setEntity(MultipartEntityBuilder.create().addPart("file", new FileBody(file, ContentType.APPLICATION_OCTET_STREAM, file.getName())).build());
+        return checkStatus(client.execute(post), 200).trim();
+    }
+
+    /**
+     * Streams the blob, or its range, e.g. bytes=0-1023.
+     *
+     * @return number of bytes read
+     */
+    public long download(String blobKey, String range) throws IOException {
+        HttpGet get = new HttpGet(new URL(root, "benchmark/blob?key=" + blobKey).toExternalForm());
+        if (range != null) {
+            get.setHeader("Range", range);
+        }
+        HttpResponse response = client.execute(get);
+        int status = response.getStatusLine().getStatusCode();
+        if (status != 200 && status != 206) {
+            throw new IOException(String.format("Invalid response code %s for %s", status, blobKey));
+        }
+        long total = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream is = response.getEntity().getContent()) {
+            int r;
+            while ((r = is.read(buffer)) != -1) {
+                total += r;
+            }
+        }
+        return total;
+    }
+
+    private static String checkStatus(HttpResponse response, int expected) throws IOException {
+        String result = EntityUtils.toString(response.getEntity());
+        int status = response.getStatusLine().getStatusCode();
+        if (status != expected) {
+            throw new IOException(String.format("Invalid response code %s: %s", status, result));
+        }
+        return result;
+    }
+
+    public void close() throws IOException {
+        client.close();
+    }
+}
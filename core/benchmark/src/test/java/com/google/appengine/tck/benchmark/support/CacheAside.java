@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+
+/**
+ * Cache-aside layer of memcache over datastore, the way applications usually front their datastore reads.
+ * <p/>
+ * Gets read through memcache, a miss reads datastore and adds the entity to memcache (unless some other caller was faster).
+ * Puts either write datastore and invalidate the cached entity, or write memcache and leave datastore to
+ * a write-behind push task, see WriteBehindServlet.
+ * Entities carry a version, so stale reads can be detected by the caller.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CacheAside {
+    public static final String KIND = "BenchmarkCacheAside";
+    public static final String VALUE = "value";
+    public static final String VERSION = "version";
+    public static final String WRITTEN = "written";
+
+    public enum WritePolicy {
+        INVALIDATE,
+        WRITE_BEHIND
+    }
+
+    private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+    private final WritePolicy policy;
+    private final Expiration expiration;
+    private final Queue queue;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param expirationSeconds memcache expiration, 0 for none
+     * @param queue push queue for write-behind tasks, ignored on invalidate
+     */
+    public CacheAside(WritePolicy policy, int expirationSeconds, Queue queue) {
+        this.policy = policy;
+        this.expiration = (expirationSeconds > 0) ? Expiration.byDeltaSeconds(expirationSeconds) : null;
+        this.queue = queue;
+    }
+
+    public static Entity createEntity(String name, long version, String value) {
+        Entity entity = new Entity(KIND, name);
+        entity.setUnindexedProperty(VALUE, value);
+        entity.setUnindexedProperty(VERSION, version);
+        entity.setUnindexedProperty(WRITTEN, System.currentTimeMillis());
+        return entity;
+    }
+
+    public static long getVersion(Entity entity) {
+        return (Long) entity.getProperty(VERSION);
+    }
+
+    /**
+     * @return the entity, or null if there is none
+     */
+    public Entity get(Key key) {
+        String cacheKey = KeyFactory.keyToString(key);
+        Entity entity = (Entity) memcache.get(cacheKey);
+        if (entity != null) {
+            hits.incrementAndGet();
+            return entity;
+        }
+
+        misses.incrementAndGet();
+        try {
+            entity = datastore.get(key);
+        } catch (EntityNotFoundException e) {
+            return null;
+        }
+        // a concurrent write may have cached or invalidated in the meantime, this is the cache-aside race
+        memcache.put(cacheKey, entity, expiration, MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        return entity;
+    }
+
+    public void put(Entity entity) {
+        String cacheKey = KeyFactory.keyToString(entity.getKey());
+        if (policy == WritePolicy.INVALIDATE) {
+            datastore.put(entity);
+            memcache.delete(cacheKey);
+        } else {
+            memcache.put(cacheKey, entity, expiration);
+            queue.add(withUrl(WriteBehindServlet.URL)
+                .param(WriteBehindServlet.NAME, entity.getKey().getName())
+                .param(VALUE, (String) entity.getProperty(VALUE))
+                .param(VERSION, String.valueOf(entity.getProperty(VERSION)))
+                .param(WRITTEN, String.valueOf(entity.getProperty(WRITTEN))));
+        }
+    }
+
+    /**
+     * Datastore is only read on a miss.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+}
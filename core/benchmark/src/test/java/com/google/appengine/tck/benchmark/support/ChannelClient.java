@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Headless channel client, ChannelFanOutServlet calls plus the dev server's channel protocol,
+ * the one its JavaScript channel client polls with, with a connection per concurrent poller.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ChannelClient implements Closeable {
+    private static final String DEV_CHANNEL = "_ah/channel/dev";
+
+    private final URL root;
+    private final CloseableHttpClient client;
+
+    public ChannelClient(URL root, int connections) {
+        this.root = root;
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(connections);
+        manager.setDefaultMaxPerRoute(connections);
+        this.client = HttpClients.custom().setConnectionManager(manager).build();
+    }
+
+    /**
+     * @return the tokens, in client id order
+     */
+    public List<String> createChannels(String prefix, int channels) throws IOException {
+        String result = execute(new HttpPost(getFanOutUrl(ChannelFanOutServlet.CREATE, prefix, channels, null)));
+        List<String> tokens = new ArrayList<>(channels);
+        for (String token : result.split("\n")) {
+            if (token.trim().isEmpty() == false) {
+                tokens.add(token.trim());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return nanos spent sending the message to every channel
+     */
+    public long broadcast(String prefix, int channels, String message) throws IOException {
+        return Long.parseLong(execute(new HttpPost(getFanOutUrl(ChannelFanOutServlet.BROADCAST, prefix, channels, message))).trim());
+    }
+
+    /**
+     * Messages are only delivered to connected channels.
+     *
+     * @return the connection's client id
+     */
+    public String connect(String token) throws IOException {
+        return execute(new HttpGet(getDevUrl("connect", token, null))).trim();
+    }
+
+    /**
+     * @return the next message, or null if there is none
+     */
+    public String poll(String token, String clientId) throws IOException {
+        String message = execute(new HttpGet(getDevUrl("poll", token, clientId)));
+        return message.isEmpty() ? null : message.trim();
+    }
+
+    public void disconnect(String token, String clientId) throws IOException {
+        execute(new HttpGet(getDevUrl("disconnect", token, clientId)));
+    }
+
+    private String getFanOutUrl(String action, String prefix, int channels, String message) throws IOException {
+        String query = String.format("benchmark/channel?%s=%s&%s=%s&%s=%s", ChannelFanOutServlet.ACTION, action,
+            ChannelFanOutServlet.PREFIX, encode(prefix), ChannelFanOutServlet.CHANNELS, channels);
+        if (message != null) {
+            query += "&" + ChannelFanOutServlet.MESSAGE + "=" + encode(message);
+        }
+        return new URL(root, query).toExternalForm();
+    }
+
+    private String getDevUrl(String command, String token, String clientId) throws IOException {
+        String query = String.format("%s?command=%s&channel=%s", DEV_CHANNEL, command, encode(token));
+        if (clientId != null) {
+            query += "&client=" + encode(clientId);
+        }
+        return new URL(root, query).toExternalForm();
+    }
+
+    private String execute(HttpUriRequest request) throws IOException {
+        HttpResponse response = client.execute(request);
+        String result = EntityUtils.toString(response.getEntity());
+        int status = response.getStatusLine().getStatusCode();
+        if (status != 200) {
+            throw new IOException(String.format("Invalid response code %s: %s", status, result));
+        }
+        return result;
+    }
+
+    private static String encode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    public void close() throws IOException {
+        client.close();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.channel.ChannelMessage;
+import com.google.appengine.api.channel.ChannelService;
+import com.google.appengine.api.channel.ChannelServiceFactory;
+
+/**
+ * Creates channels for client ids prefix0 .. prefix(channels - 1) and broadcasts messages to all of them.
+ * <p/>
+ * Create writes back one token per line, broadcast writes back the nanos spent in sendMessage.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ChannelFanOutServlet extends HttpServlet {
+    public static final String ACTION = "action";
+    public static final String CREATE = "create";
+    public static final String BROADCAST = "broadcast";
+    public static final String PREFIX = "prefix";
+    public static final String CHANNELS = "channels";
+    public static final String MESSAGE = "message";
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String action = req.getParameter(ACTION);
+        String prefix = req.getParameter(PREFIX);
+        int channels = Integer.parseInt(req.getParameter(CHANNELS));
+        ChannelService service = ChannelServiceFactory.getChannelService();
+
+        resp.setContentType("text/plain");
+        if (CREATE.equals(action)) {
+            StringBuilder tokens = new StringBuilder();
+            for (int i = 0; i < channels; i++) {
+                tokens.append(service.createChannel(prefix + i)).append('\n');
+            }
+            resp.getWriter().write(tokens.toString());
+        } else if (BROADCAST.equals(action)) {
+            String message = req.getParameter(MESSAGE);
+            long start = System.nanoTime();
+            for (int i = 0; i < channels; i++) {
+                service.sendMessage(new ChannelMessage(prefix + i, message));
+            }
+            resp.getWriter().write(String.valueOf(System.nanoTime() - start));
+        } else {
+            throw new IllegalArgumentException("Unknown action: " + action);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Records when the current request reached the app, before a lazily initialized servlet is loaded and initialized for it.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ColdStartFilter implements Filter {
+    private static final ThreadLocal<Long> starts = new ThreadLocal<>();
+
+    /**
+     * @return nano time the current request entered the filter, or null if it didn't
+     */
+    public static Long getRequestStart() {
+        return starts.get();
+    }
+
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        starts.set(System.nanoTime());
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            starts.remove();
+        }
+    }
+
+    public void destroy() {
+    }
+}
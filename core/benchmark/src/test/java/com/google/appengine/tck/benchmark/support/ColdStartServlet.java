@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * Reports where a loading request spent its time, as key=value lines.
+ * <p/>
+ * Init loads every class of the WEB-INF/lib jars listed in coldstart-libraries.txt, the way classpath scanning frameworks do,
+ * so classloading grows with the app size;
+ * init.ms is the rest of the time from the request which triggered init entering ColdStartFilter to the end of init,
+ * i.e. loading, instantiating and initializing this servlet.
+ * Each request makes one datastore get, api.ms of the instance's first one includes loading the API and its stubs.
+ * Warmup tells whether a warmup request initialized this instance before the first user request,
+ * in which case classloading and init were paid by the warmup request.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ColdStartServlet extends HttpServlet {
+    public static final String WARMUP_PATH = "/_ah/warmup";
+    public static final String LIBRARIES = "coldstart-libraries.txt";
+
+    private final AtomicBoolean firstCall = new AtomicBoolean(true);
+    private volatile boolean warmup;
+    private volatile long classLoadingNanos;
+    private volatile long initNanos;
+    private volatile int classes;
+
+    @Override
+    public void init() throws ServletException {
+        long start = System.nanoTime();
+        loadLibraryClasses();
+        long end = System.nanoTime();
+        classLoadingNanos = end - start;
+        Long requestStart = ColdStartFilter.getRequestStart();
+        if (requestStart == null) {
+            throw new ServletException("ColdStartFilter is not mapped to " + getServletName());
+        }
+        initNanos = end - requestStart - classLoadingNanos;
+    }
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        if (WARMUP_PATH.equals(req.getServletPath())) {
+            warmup = true;
+            return;
+        }
+
+        boolean first = firstCall.compareAndSet(true, false);
+        long start = System.nanoTime();
+        try {
+            DatastoreServiceFactory.getDatastoreService().get(KeyFactory.createKey("ColdStart", 1));
+        } catch (EntityNotFoundException ignored) {
+        }
+        long api = System.nanoTime() - start;
+
+        resp.setContentType("text/plain");
+        StringBuilder builder = new StringBuilder();
+        builder.append("first=").append(first).append('\n');
+        builder.append("warmup=").append(warmup).append('\n');
+        builder.append("classes=").append(classes).append('\n');
+        builder.append("classloading.ms=").append(toMillis(classLoadingNanos)).append('\n');
+        builder.append("init.ms=").append(toMillis(initNanos)).append('\n');
+        builder.append("api.ms=").append(toMillis(api)).append('\n');
+        resp.getWriter().write(builder.toString());
+    }
+
+    private void loadLibraryClasses() throws ServletException {
+        ClassLoader cl = getClass().getClassLoader();
+        int count = 0;
+        for (String jar : readLibraries(cl)) {
+            try (InputStream is = getServletContext().getResourceAsStream("/WEB-INF/lib/" + jar)) {
+                if (is == null) {
+                    throw new ServletException("No such library: " + jar);
+                }
+                JarInputStream jis = new JarInputStream(is);
+                JarEntry entry;
+                while ((entry = jis.getNextJarEntry()) != null) {
+                    String name = entry.getName();
+                    if (name.endsWith(".class") && name.contains("-") == false) {
+                        try {
+                            Class.forName(name.substring(0, name.length() - 6).replace('/', '.'), false, cl);
+                            count++;
+                        } catch (ClassNotFoundException | LinkageError | SecurityException ignored) {
+                            // optional dependencies of the library, or classes using restricted JDK packages
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new ServletException("Cannot read " + jar, e);
+            }
+        }
+        classes = count;
+    }
+
+    private static List<String> readLibraries(ClassLoader cl) throws ServletException {
+        List<String> jars = new ArrayList<>();
+        try (InputStream is = cl.getResourceAsStream(LIBRARIES)) {
+            if (is != null) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty() == false) {
+                        jars.add(line.trim());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new ServletException("Cannot read " + LIBRARIES, e);
+        }
+        return jars;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+}
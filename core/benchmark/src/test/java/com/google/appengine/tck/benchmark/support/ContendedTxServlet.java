@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+
+/**
+ * Load mode of the byteman tests' ConcurrentTxServlet: increments a counter in the given entity group
+ * in a transaction, retrying on ConcurrentModificationException.
+ * Retries back off exponentially with full jitter, a random wait of up to backoff * 2^(retry - 1) millis, capped at MAX_BACKOFF,
+ * so conflicting transactions don't retry in lockstep.
+ * <p/>
+ * XG transactions also increment the counter of the next group, so they span two groups when there are more than one.
+ * Writes back "OK attempts elapsed" or "FAILED attempts elapsed", elapsed in nanos from the first attempt.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ContendedTxServlet extends HttpServlet {
+    public static final String GROUP = "group";
+    public static final String GROUPS = "groups";
+    public static final String XG = "xg";
+    public static final String RETRIES = "retries";
+    public static final String BACKOFF = "backoff";
+
+    private static final String KIND = "BenchmarkTxCounter";
+    private static final long MAX_BACKOFF = 1000;
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        int group = Integer.parseInt(req.getParameter(GROUP));
+        int groups = Integer.parseInt(req.getParameter(GROUPS));
+        boolean xg = Boolean.parseBoolean(req.getParameter(XG));
+        int retries = Integer.parseInt(req.getParameter(RETRIES));
+        long backoff = Long.parseLong(req.getParameter(BACKOFF));
+
+        List<Key> keys = new ArrayList<>();
+        keys.add(getCounterKey(group));
+        if (xg && groups > 1) {
+            keys.add(getCounterKey((group + 1) % groups));
+        }
+
+        DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+        long start = System.nanoTime();
+        int attempts = 0;
+        boolean committed = false;
+        while (committed == false && attempts <= retries) {
+            if (attempts > 0 && backoff > 0) {
+                sleep(backoff, attempts);
+            }
+            attempts++;
+            Transaction tx = ds.beginTransaction(TransactionOptions.Builder.withXG(xg));
+            try {
+                increment(ds, tx, keys);
+                tx.commit();
+                committed = true;
+            } catch (ConcurrentModificationException e) {
+                // conflict, retry
+            } finally {
+                if (tx.isActive()) {
+                    tx.rollback();
+                }
+            }
+        }
+        resp.getWriter().write(String.format("%s %s %s", committed ? "OK" : "FAILED", attempts, System.nanoTime() - start));
+    }
+
+    private static void sleep(long backoff, int retry) throws ServletException {
+        long max = Math.min(MAX_BACKOFF, backoff << Math.min(retry - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(max + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        }
+    }
+
+    private static void increment(DatastoreService ds, Transaction tx, List<Key> keys) {
+        Map<Key, Entity> existing = ds.get(tx, keys);
+        List<Entity> counters = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            Entity counter = existing.get(key);
+            if (counter == null) {
+                counter = new Entity(key);
+                counter.setUnindexedProperty("count", 0L);
+            }
+            counter.setUnindexedProperty("count", (Long) counter.getProperty("count") + 1);
+            counters.add(counter);
+        }
+        ds.put(tx, counters);
+    }
+
+    private static Key getCounterKey(int group) {
+        return KeyFactory.createKey(KIND, group + 1);
+    }
+}
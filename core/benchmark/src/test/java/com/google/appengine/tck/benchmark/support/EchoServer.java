@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * TCP and UDP echo server on the same port, for the client side of socket benchmarks.
+ * <p/>
+ * Every TCP connection gets its own thread, which echoes until the peer closes the connection;
+ * UDP datagrams are echoed from a single thread.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class EchoServer implements Closeable {
+    private static final Logger log = Logger.getLogger(EchoServer.class.getName());
+    private static final int MAX_DATAGRAM = 65507;
+
+    private final ServerSocket serverSocket;
+    private final DatagramSocket datagramSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    public EchoServer(String host, int port) throws IOException {
+        InetAddress address = InetAddress.getByName(host);
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(address, port), 1024);
+        datagramSocket = new DatagramSocket(new InetSocketAddress(address, port));
+        executor.execute(new Runnable() {
+            public void run() {
+                acceptConnections();
+            }
+        });
+        executor.execute(new Runnable() {
+            public void run() {
+                echoDatagrams();
+            }
+        });
+        log.info(String.format("Echo server listening on %s:%s", host, port));
+    }
+
+    private void acceptConnections() {
+        while (serverSocket.isClosed() == false) {
+            try {
+                final Socket socket = serverSocket.accept();
+                executor.execute(new Runnable() {
+                    public void run() {
+                        echo(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (serverSocket.isClosed() == false) {
+                    log.warning("Cannot accept connection: " + e);
+                }
+            }
+        }
+    }
+
+    private static void echo(Socket socket) {
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            int r;
+            while ((r = in.read(buffer)) != -1) {
+                out.write(buffer, 0, r);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // peer reset the connection
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void echoDatagrams() {
+        byte[] buffer = new byte[MAX_DATAGRAM];
+        while (datagramSocket.isClosed() == false) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                datagramSocket.receive(packet);
+                datagramSocket.send(new DatagramPacket(packet.getData(), packet.getLength(), packet.getSocketAddress()));
+            } catch (SocketException e) {
+                if (datagramSocket.isClosed() == false) {
+                    log.warning("Cannot echo datagram: " + e);
+                }
+            } catch (IOException e) {
+                log.warning("Cannot echo datagram: " + e);
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        datagramSocket.close();
+        serverSocket.close();
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
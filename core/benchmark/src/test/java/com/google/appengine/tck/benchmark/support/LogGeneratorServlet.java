@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Request log generator, writes the given number of app log lines.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class LogGeneratorServlet extends HttpServlet {
+    public static final String LINES = "lines";
+
+    private final Logger log = Logger.getLogger(getClass().getName());
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        int lines = Integer.parseInt(req.getParameter(LINES));
+        for (int i = 0; i < lines; i++) {
+            log.info(String.format("Benchmark log line %s of %s", i + 1, lines));
+        }
+        resp.getWriter().write("OK");
+    }
+}
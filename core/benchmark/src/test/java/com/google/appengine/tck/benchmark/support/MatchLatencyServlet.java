@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+
+/**
+ * Prospective search result target, records match to callback latency of matches which carry a run id.
+ * <p/>
+ * The match result key is run id and match time, separated by SEPARATOR.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MatchLatencyServlet extends HttpServlet {
+    public static final String KIND = "BenchmarkMatchLatency";
+    public static final String SEPARATOR = "|";
+    public static final String RUN = "run";
+    public static final String MATCHED = "matched";
+    public static final String LATENCY = "latency";
+    public static final String RESULTS = "results";
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        long now = System.currentTimeMillis();
+        String key = req.getParameter("key");
+        int separator = (key != null) ? key.lastIndexOf(SEPARATOR) : -1;
+        if (separator < 0) {
+            return; // match throughput benchmark result
+        }
+
+        String[] ids = req.getParameterValues("id");
+        long matched = Long.parseLong(key.substring(separator + 1));
+        Entity entity = new Entity(KIND);
+        entity.setProperty(RUN, key.substring(0, separator));
+        entity.setUnindexedProperty(MATCHED, matched);
+        entity.setUnindexedProperty(LATENCY, now - matched);
+        entity.setUnindexedProperty(RESULTS, (ids != null) ? ids.length : 0);
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+    }
+}
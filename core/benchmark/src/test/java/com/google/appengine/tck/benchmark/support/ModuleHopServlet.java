@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.modules.ModulesService;
+import com.google.appengine.api.modules.ModulesServiceFactory;
+import com.google.appengine.api.urlfetch.FetchOptions;
+import com.google.appengine.api.urlfetch.HTTPMethod;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.appengine.api.urlfetch.URLFetchServiceFactory;
+
+/**
+ * Calls between modules over URLFetch, to the hostnames ModulesService.getVersionHostname returns,
+ * resolved on the first call to each module, e.g. during warmup.
+ * <p/>
+ * Hop forwards the request to the first of the comma separated modules, which forwards it to the rest,
+ * the last one writes back size bytes; the nanos spent in the outgoing fetch, so all downstream hops, are in the X-Hop-Nanos header.
+ * <p/>
+ * Visibility creates, updates and deletes a datastore entity or memcache value, after each write polling the target module,
+ * with datastore gets, queries or memcache gets, until it sees the write; it writes back one "op nanos reads" line per write.
+ * The lag includes one fetch to the target module.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ModuleHopServlet extends HttpServlet {
+    public static final String PATH = "benchmark/modules";
+    public static final String ACTION = "action";
+    public static final String HOP = "hop";
+    public static final String VISIBILITY = "visibility";
+    public static final String READ = "read";
+    public static final String MODULES = "modules";
+    public static final String SIZE = "size";
+    public static final String STORE = "store";
+    public static final String KEY = "key";
+    public static final String TIMEOUT = "timeout";
+    public static final String HOP_NANOS = "X-Hop-Nanos";
+
+    private static final String KIND = "ModuleHop";
+    private static final String VALUE = "value";
+    private static final String ABSENT = "-";
+    private static final double DEADLINE = 60.0;
+
+    private final ConcurrentMap<String, String> hostnames = new ConcurrentHashMap<>();
+
+    public enum Store {
+        DATASTORE_GET,
+        DATASTORE_QUERY,
+        MEMCACHE
+    }
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String action = req.getParameter(ACTION);
+        resp.setContentType("text/plain");
+        if (HOP.equals(action)) {
+            hop(req, resp);
+        } else if (VISIBILITY.equals(action)) {
+            visibility(req, resp);
+        } else if (READ.equals(action)) {
+            Store store = Store.valueOf(req.getParameter(STORE));
+            resp.getWriter().write(read(store, req.getParameter(KEY)));
+        } else {
+            throw new IllegalArgumentException("Unknown action: " + action);
+        }
+    }
+
+    private void hop(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String modules = req.getParameter(MODULES);
+        int size = Integer.parseInt(req.getParameter(SIZE));
+        if (modules == null || modules.isEmpty()) {
+            byte[] payload = new byte[size];
+            Arrays.fill(payload, (byte) 'x');
+            resp.setHeader(HOP_NANOS, "0");
+            resp.getOutputStream().write(payload);
+            return;
+        }
+
+        int comma = modules.indexOf(',');
+        String next = (comma < 0) ? modules : modules.substring(0, comma);
+        String rest = (comma < 0) ? "" : modules.substring(comma + 1);
+        long start = System.nanoTime();
+        HTTPResponse response = fetch(next, String.format("%s=%s&%s=%s&%s=%s", ACTION, HOP, MODULES, rest, SIZE, size));
+        resp.setHeader(HOP_NANOS, String.valueOf(System.nanoTime() - start));
+        resp.getOutputStream().write(response.getContent());
+    }
+
+    private void visibility(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String module = req.getParameter(MODULES);
+        Store store = Store.valueOf(req.getParameter(STORE));
+        long timeout = Long.parseLong(req.getParameter(TIMEOUT));
+        String key = UUID.randomUUID().toString();
+
+        StringBuilder builder = new StringBuilder();
+        String[] values = {"create-" + key, "update-" + key, null};
+        String[] ops = {"CREATE", "UPDATE", "DELETE"};
+        for (int i = 0; i < ops.length; i++) {
+            write(store, key, values[i]);
+            String expected = (values[i] != null) ? values[i] : ABSENT;
+            long start = System.nanoTime();
+            int reads = 0;
+            String seen;
+            do {
+                if (System.nanoTime() - start > timeout * 1000000L) {
+                    throw new IllegalStateException(String.format("%s %s not visible in %s after %sms", ops[i], store, module, timeout));
+                }
+                String query = String.format("%s=%s&%s=%s&%s=%s", ACTION, READ, STORE, store, KEY, key);
+                seen = new String(fetch(module, query).getContent(), "UTF-8");
+                reads++;
+            } while (expected.equals(seen) == false);
+            builder.append(ops[i]).append(' ').append(System.nanoTime() - start).append(' ').append(reads).append('\n');
+        }
+        resp.getWriter().write(builder.toString());
+    }
+
+    private static void write(Store store, String key, String value) {
+        if (store == Store.MEMCACHE) {
+            MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+            if (value != null) {
+                memcache.put(key, value);
+            } else {
+                memcache.delete(key);
+            }
+        } else {
+            DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+            if (value != null) {
+                Entity entity = new Entity(KIND, key);
+                entity.setProperty(VALUE, value);
+                ds.put(entity);
+            } else {
+                ds.delete(KeyFactory.createKey(KIND, key));
+            }
+        }
+    }
+
+    private static String read(Store store, String key) {
+        Object value;
+        if (store == Store.MEMCACHE) {
+            value = MemcacheServiceFactory.getMemcacheService().get(key);
+        } else if (store == Store.DATASTORE_GET) {
+            try {
+                value = DatastoreServiceFactory.getDatastoreService().get(KeyFactory.createKey(KIND, key)).getProperty(VALUE);
+            } catch (EntityNotFoundException e) {
+                value = null;
+            }
+        } else {
+            // a non-ancestor query, eventually consistent
+            Key entityKey = KeyFactory.createKey(KIND, key);
+            Query query = new Query(KIND).setFilter(new Query.FilterPredicate(Entity.KEY_RESERVED_PROPERTY, Query.FilterOperator.EQUAL, entityKey));
+            Entity entity = DatastoreServiceFactory.getDatastoreService().prepare(query).asSingleEntity();
+            value = (entity != null) ? entity.getProperty(VALUE) : null;
+        }
+        return (value != null) ? value.toString() : ABSENT;
+    }
+
+    /**
+     * Resolved once per module, so the hops don't time the Modules API.
+     */
+    private String getHostname(String module) {
+        String hostname = hostnames.get(module);
+        if (hostname == null) {
+            ModulesService modules = ModulesServiceFactory.getModulesService();
+            hostname = modules.getVersionHostname(module, modules.getDefaultVersion(module));
+            hostnames.putIfAbsent(module, hostname);
+        }
+        return hostname;
+    }
+
+    private HTTPResponse fetch(String module, String query) throws IOException {
+        URL url = new URL(String.format("http://%s/%s?%s", getHostname(module), PATH, query));
+        URLFetchService service = URLFetchServiceFactory.getURLFetchService();
+        HTTPResponse response = service.fetch(new HTTPRequest(url, HTTPMethod.GET, FetchOptions.Builder.withDeadline(DEADLINE)));
+        if (response.getResponseCode() != 200) {
+            throw new IOException(String.format("Fetch of %s failed: %s", url, response.getResponseCode()));
+        }
+        return response;
+    }
+}
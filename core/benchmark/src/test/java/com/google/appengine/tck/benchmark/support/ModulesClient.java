@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * ModuleHopServlet calls, with a connection per concurrent caller.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ModulesClient implements Closeable {
+    private final URL root;
+    private final CloseableHttpClient client;
+
+    public ModulesClient(URL root, int connections) {
+        this.root = root;
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(connections);
+        manager.setDefaultMaxPerRoute(connections);
+        this.client = HttpClients.custom().setConnectionManager(manager).build();
+    }
+
+    /**
+     * @param modules comma separated modules to hop through, none for no hop
+     * @return nanos the called module spent fetching the next one
+     */
+    public long hop(String modules, int size) throws IOException {
+        String query = String.format("%s=%s&%s=%s&%s=%s", ModuleHopServlet.ACTION, ModuleHopServlet.HOP,
+            ModuleHopServlet.MODULES, modules, ModuleHopServlet.SIZE, size);
+        HttpResponse response = client.execute(new HttpGet(getUrl(query)));
+        byte[] content = EntityUtils.toByteArray(response.getEntity());
+        checkStatus(response, content);
+        if (content.length != size) {
+            throw new IOException(String.format("Expected %s bytes, got %s", size, content.length));
+        }
+        return Long.parseLong(response.getFirstHeader(ModuleHopServlet.HOP_NANOS).getValue());
+    }
+
+    /**
+     * @return nanos and reads until the module saw the write, per write op
+     */
+    public Map<String, long[]> visibility(String module, ModuleHopServlet.Store store, long timeout) throws IOException {
+        String query = String.format("%s=%s&%s=%s&%s=%s&%s=%s", ModuleHopServlet.ACTION, ModuleHopServlet.VISIBILITY,
+            ModuleHopServlet.MODULES, module, ModuleHopServlet.STORE, store, ModuleHopServlet.TIMEOUT, timeout);
+        HttpResponse response = client.execute(new HttpGet(getUrl(query)));
+        byte[] content = EntityUtils.toByteArray(response.getEntity());
+        checkStatus(response, content);
+        Map<String, long[]> lags = new LinkedHashMap<>();
+        for (String line : new String(content, "UTF-8").split("\n")) {
+            String[] split = line.trim().split(" ");
+            if (split.length == 3) {
+                lags.put(split[0], new long[]{Long.parseLong(split[1]), Long.parseLong(split[2])});
+            }
+        }
+        return lags;
+    }
+
+    private String getUrl(String query) throws IOException {
+        return new URL(root, ModuleHopServlet.PATH + "?" + query).toExternalForm();
+    }
+
+    private static void checkStatus(HttpResponse response, byte[] content) throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        if (status != 200) {
+            throw new IOException(String.format("Invalid response code %s: %s", status, new String(content, "UTF-8")));
+        }
+    }
+
+    public void close() throws IOException {
+        client.close();
+    }
+}
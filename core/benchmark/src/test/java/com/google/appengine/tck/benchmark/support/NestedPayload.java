@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.appengine.tck.endpoints.support.Bar;
+import com.google.appengine.tck.endpoints.support.Baz;
+import com.google.appengine.tck.endpoints.support.Foo;
+
+/**
+ * Endpoints benchmark payload, a tree of nodes with lists of plain, annotated and transformed beans.
+ * <p/>
+ * Foo has no default constructor, so it can only be serialized, requests leave foos out.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class NestedPayload {
+    public static final int FANOUT = 2;
+
+    private String name;
+    private List<Foo> foos;
+    private List<Bar> bars;
+    private List<Baz> bazs;
+    private List<NestedPayload> children;
+
+    /**
+     * Size beans of each type per node, depth levels of FANOUT children below the root.
+     */
+    public static NestedPayload create(int size, int depth) {
+        return create("root", size, depth);
+    }
+
+    private static NestedPayload create(String name, int size, int depth) {
+        NestedPayload payload = new NestedPayload();
+        payload.setName(name);
+        List<Foo> foos = new ArrayList<>(size);
+        List<Bar> bars = new ArrayList<>(size);
+        List<Baz> bazs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            foos.add(new Foo(i, i + 1, i + 2));
+            bars.add(new Bar(i, i + 1));
+            bazs.add(new Baz(i, i + 1));
+        }
+        payload.setFoos(foos);
+        payload.setBars(bars);
+        payload.setBazs(bazs);
+        List<NestedPayload> children = new ArrayList<>();
+        if (depth > 0) {
+            for (int i = 0; i < FANOUT; i++) {
+                children.add(create(name + "." + i, size, depth - 1));
+            }
+        }
+        payload.setChildren(children);
+        return payload;
+    }
+
+    /**
+     * Number of nodes in a tree of the given depth.
+     */
+    public static int nodes(int depth) {
+        return (depth == 0) ? 1 : 1 + FANOUT * nodes(depth - 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<Foo> getFoos() {
+        return foos;
+    }
+
+    public void setFoos(List<Foo> foos) {
+        this.foos = foos;
+    }
+
+    public List<Bar> getBars() {
+        return bars;
+    }
+
+    public void setBars(List<Bar> bars) {
+        this.bars = bars;
+    }
+
+    public List<Baz> getBazs() {
+        return bazs;
+    }
+
+    public void setBazs(List<Baz> bazs) {
+        this.bazs = bazs;
+    }
+
+    public List<NestedPayload> getChildren() {
+        return children;
+    }
+
+    public void setChildren(List<NestedPayload> children) {
+        this.children = children;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import com.google.appengine.tck.endpoints.support.EndPointClient;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * EndPointClient with a pooled connection per concurrent client, the default pool only allows two per route.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class PooledEndPointClient extends EndPointClient {
+    private final int connections;
+
+    public PooledEndPointClient(int connections) {
+        this.connections = connections;
+    }
+
+    @Override
+    protected HttpClientConnectionManager createClientConnectionManager(Registry<ConnectionSocketFactory> schemeRegistry) {
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(schemeRegistry);
+        manager.setMaxTotal(connections);
+        manager.setDefaultMaxPerRoute(connections);
+        return manager;
+    }
+}
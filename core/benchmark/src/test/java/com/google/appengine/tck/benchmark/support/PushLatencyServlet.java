@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+
+/**
+ * Push task target, records enqueue to invocation latency of tasks which carry a run id.
+ * <p/>
+ * Latencies are stored in datastore, since the task may hit a different instance than the benchmark.
+ * Entities are keyed by task name and only the first delivery is recorded, tasks are delivered at least once.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class PushLatencyServlet extends HttpServlet {
+    public static final String KIND = "BenchmarkPushLatency";
+    public static final String RUN = "run";
+    public static final String ENQUEUED = "enqueued";
+    public static final String LATENCY = "latency";
+    public static final String TASK_NAME = "X-AppEngine-TaskName";
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        long now = System.currentTimeMillis();
+        String run = req.getParameter(RUN);
+        if (run == null) {
+            return; // plain enqueue benchmark task
+        }
+
+        Key key = KeyFactory.createKey(KIND, req.getHeader(TASK_NAME));
+        DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+        Transaction tx = ds.beginTransaction();
+        try {
+            try {
+                ds.get(tx, key);
+                return; // redelivery
+            } catch (EntityNotFoundException ignored) {
+            }
+            Entity entity = new Entity(key);
+            entity.setProperty(RUN, run);
+            entity.setUnindexedProperty(ENQUEUED, Long.parseLong(req.getParameter(ENQUEUED)));
+            entity.setUnindexedProperty(LATENCY, now - Long.parseLong(req.getParameter(ENQUEUED)));
+            ds.put(tx, entity);
+            tx.commit();
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+        }
+    }
+}
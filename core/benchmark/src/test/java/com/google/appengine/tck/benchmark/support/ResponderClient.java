@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Client side ResponderServlet requests, with a connection per concurrent client.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ResponderClient implements Closeable {
+    private final URL root;
+    private final CloseableHttpClient client;
+
+    public ResponderClient(URL root, int connections) {
+        this.root = root;
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(connections);
+        manager.setDefaultMaxPerRoute(connections);
+        this.client = HttpClients.custom().setConnectionManager(manager).build();
+    }
+
+    /**
+     * @return the number of bytes received
+     */
+    public int respond(long latency, int size) throws IOException {
+        String query = String.format("benchmark/respond?%s=%s&%s=%s", ResponderServlet.LATENCY, latency, ResponderServlet.SIZE, size);
+        HttpResponse response = client.execute(new HttpGet(new URL(root, query).toExternalForm()));
+        byte[] bytes = EntityUtils.toByteArray(response.getEntity());
+        int status = response.getStatusLine().getStatusCode();
+        if (status != 200) {
+            throw new IOException(String.format("Invalid response code %s: %s", status, new String(bytes)));
+        }
+        return bytes.length;
+    }
+
+    public void close() throws IOException {
+        client.close();
+    }
+}
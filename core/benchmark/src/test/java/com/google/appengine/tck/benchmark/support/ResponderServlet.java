@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * URLFetch target, responds with size bytes after sleeping for latency millis.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ResponderServlet extends HttpServlet {
+    public static final String LATENCY = "latency";
+    public static final String SIZE = "size";
+
+    private static final int CHUNK = 8192;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        long latency = getParameter(request, LATENCY);
+        int size = (int) getParameter(request, SIZE);
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServletException(e);
+            }
+        }
+
+        response.setContentType("application/octet-stream");
+        response.setContentLength(size);
+        byte[] chunk = new byte[Math.min(size, CHUNK)];
+        Arrays.fill(chunk, (byte) 'x');
+        OutputStream os = response.getOutputStream();
+        for (int written = 0; written < size; written += chunk.length) {
+            os.write(chunk, 0, Math.min(chunk.length, size - written));
+        }
+    }
+
+    private static long getParameter(HttpServletRequest request, String name) {
+        String value = request.getParameter(name);
+        return (value != null) ? Long.parseLong(value) : 0;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Client side ContendedTxServlet transactions, with a connection per concurrent client.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class TxClient implements Closeable {
+    private final URL root;
+    private final CloseableHttpClient client;
+
+    public TxClient(URL root, int connections) {
+        this.root = root;
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(connections);
+        manager.setDefaultMaxPerRoute(connections);
+        this.client = HttpClients.custom().setConnectionManager(manager).build();
+    }
+
+    public Result increment(int group, int groups, boolean xg, int retries, long backoff) throws IOException {
+        String query = String.format("benchmark/tx?%s=%s&%s=%s&%s=%s&%s=%s&%s=%s",
+            ContendedTxServlet.GROUP, group, ContendedTxServlet.GROUPS, groups, ContendedTxServlet.XG, xg, ContendedTxServlet.RETRIES, retries,
+            ContendedTxServlet.BACKOFF, backoff);
+        HttpResponse response = client.execute(new HttpPost(new URL(root, query).toExternalForm()));
+        String result = EntityUtils.toString(response.getEntity());
+        int status = response.getStatusLine().getStatusCode();
+        if (status != 200) {
+            throw new IOException(String.format("Invalid response code %s: %s", status, result));
+        }
+        String[] split = result.trim().split(" ");
+        return new Result("OK".equals(split[0]), Integer.parseInt(split[1]), Long.parseLong(split[2]));
+    }
+
+    public void close() throws IOException {
+        client.close();
+    }
+
+    public static class Result {
+        private final boolean committed;
+        private final int attempts;
+        private final long elapsed;
+
+        private Result(boolean committed, int attempts, long elapsed) {
+            this.committed = committed;
+            this.attempts = attempts;
+            this.elapsed = elapsed;
+        }
+
+        public boolean isCommitted() {
+            return committed;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * Nanos from the first attempt until commit or giving up.
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+    }
+}
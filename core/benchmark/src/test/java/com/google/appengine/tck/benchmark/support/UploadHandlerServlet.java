@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+
+/**
+ * Upload success handler, writes back the blob key.
+ * <p/>
+ * Uploaded blobs are recorded in datastore, so in-container benchmarks can read them and clean them up.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class UploadHandlerServlet extends HttpServlet {
+    private static final String KIND = "BenchmarkBlob";
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        BlobstoreService blobstore = BlobstoreServiceFactory.getBlobstoreService();
+        Map<String, List<BlobInfo>> infos = blobstore.getBlobInfos(request);
+        for (List<BlobInfo> list : infos.values()) {
+            for (BlobInfo info : list) {
+                Entity entity = new Entity(KIND);
+                entity.setProperty("blobKey", info.getBlobKey().getKeyString());
+                entity.setProperty("size", info.getSize());
+                DatastoreServiceFactory.getDatastoreService().put(entity);
+                response.getWriter().write(info.getBlobKey().getKeyString());
+            }
+        }
+    }
+
+    /**
+     * Any one uploaded blob of the given size.
+     */
+    public static BlobKey findBlob(long size) {
+        Query query = new Query(KIND).setFilter(new Query.FilterPredicate("size", Query.FilterOperator.EQUAL, size));
+        for (Entity entity : DatastoreServiceFactory.getDatastoreService().prepare(query).asIterable(FetchOptions.Builder.withLimit(1))) {
+            return new BlobKey((String) entity.getProperty("blobKey"));
+        }
+        return null;
+    }
+
+    /**
+     * Deletes all uploaded blobs.
+     *
+     * @return number of deleted blobs
+     */
+    public static int deleteBlobs() {
+        List<BlobKey> blobKeys = new ArrayList<>();
+        List<Key> keys = new ArrayList<>();
+        for (Entity entity : DatastoreServiceFactory.getDatastoreService().prepare(new Query(KIND)).asIterable()) {
+            blobKeys.add(new BlobKey((String) entity.getProperty("blobKey")));
+            keys.add(entity.getKey());
+        }
+        if (blobKeys.isEmpty() == false) {
+            BlobstoreServiceFactory.getBlobstoreService().delete(blobKeys.toArray(new BlobKey[blobKeys.size()]));
+            DatastoreServiceFactory.getDatastoreService().delete(keys);
+        }
+        return blobKeys.size();
+    }
+}
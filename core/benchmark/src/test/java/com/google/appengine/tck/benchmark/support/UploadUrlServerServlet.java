@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+
+/**
+ * Hands out blobstore upload urls, like the blobstore tests' UploadUrlServerServlet.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class UploadUrlServerServlet extends HttpServlet {
+    public static final String UPLOAD_HANDLER = "/benchmark/upload";
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.getWriter().println(BlobstoreServiceFactory.getBlobstoreService().createUploadUrl(UPLOAD_HANDLER));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.support;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+
+/**
+ * Write-behind push task target of CacheAside, persists the entity unless datastore already has a newer version.
+ * <p/>
+ * Tasks may run out of order, so the check and the put are transactional; a ConcurrentModificationException
+ * fails the task, which is then retried by the queue.
+ * The persisted entity records the write to persist lag, since the task may hit a different instance than the benchmark.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class WriteBehindServlet extends HttpServlet {
+    public static final String URL = "/benchmark/writebehind";
+    public static final String NAME = "name";
+    public static final String LAG = "lag";
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String name = req.getParameter(NAME);
+        long version = Long.parseLong(req.getParameter(CacheAside.VERSION));
+        long written = Long.parseLong(req.getParameter(CacheAside.WRITTEN));
+
+        DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+        Key key = KeyFactory.createKey(CacheAside.KIND, name);
+        Transaction tx = ds.beginTransaction();
+        try {
+            try {
+                if (CacheAside.getVersion(ds.get(tx, key)) >= version) {
+                    return; // superseded
+                }
+            } catch (EntityNotFoundException ignored) {
+            }
+            Entity entity = new Entity(key);
+            entity.setUnindexedProperty(CacheAside.VALUE, req.getParameter(CacheAside.VALUE));
+            entity.setUnindexedProperty(CacheAside.VERSION, version);
+            entity.setUnindexedProperty(CacheAside.WRITTEN, written);
+            entity.setUnindexedProperty(LAG, System.currentTimeMillis() - written);
+            ds.put(tx, entity);
+            tx.commit();
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+        }
+    }
+}
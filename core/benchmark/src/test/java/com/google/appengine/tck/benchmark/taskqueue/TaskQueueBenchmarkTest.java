@@ -0,0 +1,329 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.taskqueue;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.support.PushLatencyServlet;
+import org.HdrHistogram.Histogram;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withMethod;
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+
+/**
+ * Task queue enqueue, lease and end-to-end push latency.
+ * <p/>
+ * Enqueue sweeps Queue.add(Iterable) batch sizes up to the 100 tasks limit, for push and pull queues;
+ * push tasks are added with a long countdown, so their execution doesn't interfere.
+ * Both are enqueued into queues of their own, so purging them never drops lease or push latency tasks.
+ * Lease sweeps leaseTasks / leaseTasksByTag batch sizes and concurrent workers (benchmark.taskqueue.lease.threads),
+ * each on a pull queue which was purged and is empty.
+ * Push latency is measured from enqueue to PushLatencyServlet invocation, and reported as histogram.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class TaskQueueBenchmarkTest extends BenchmarkTestBase {
+    private static final String PUSH_QUEUE = "benchmark-push";
+    private static final String PULL_QUEUE = "benchmark-pull";
+    private static final String ADD_PUSH_QUEUE = "benchmark-add-push";
+    private static final String ADD_PULL_QUEUE = "benchmark-add-pull";
+    private static final String PUSH_URL = "/benchmark/push";
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final long LEASE_SECONDS = 60;
+    private static final long COUNTDOWN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private Queue pushQueue;
+    private Queue pullQueue;
+    private Queue addPushQueue;
+    private Queue addPullQueue;
+
+    protected enum Mode {
+        PUSH,
+        PULL
+    }
+
+    protected enum Lease {
+        LEASE,
+        LEASE_BY_TAG
+    }
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment(new TestContext().setWebXmlFile("web-taskqueue-benchmark.xml"));
+        war.addClass(PushLatencyServlet.class);
+        war.addAsWebInfResource("queue-benchmark.xml", "queue.xml");
+        return war;
+    }
+
+    @Before
+    public void setUp() {
+        pushQueue = QueueFactory.getQueue(PUSH_QUEUE);
+        pullQueue = QueueFactory.getQueue(PULL_QUEUE);
+        addPushQueue = QueueFactory.getQueue(ADD_PUSH_QUEUE);
+        addPullQueue = QueueFactory.getQueue(ADD_PULL_QUEUE);
+    }
+
+    @Test
+    @RunAsClient
+    public void testAdd(@ArquillianResource URL url) throws Exception {
+        for (Mode mode : Mode.values()) {
+            for (int batchSize : getIntValues("benchmark.taskqueue.add.batch.sizes", "1,10,100")) {
+                invoke(url, "benchmarkAdd", mode, batchSize);
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testLease(@ArquillianResource URL url) throws Exception {
+        for (Lease lease : Lease.values()) {
+            for (int batchSize : getIntValues("benchmark.taskqueue.lease.batch.sizes", "10,100")) {
+                for (int threads : getIntValues("benchmark.taskqueue.lease.threads", "1,4")) {
+                    invoke(url, "benchmarkLease", lease, batchSize, threads);
+                }
+            }
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void testPushLatency(@ArquillianResource URL url) throws Exception {
+        int tasks = Integer.parseInt(getBenchmarkProperty("benchmark.taskqueue.push.tasks", "100"));
+        for (int batchSize : getIntValues("benchmark.taskqueue.push.batch.sizes", "1,100")) {
+            benchmarkPushLatency(url, tasks, batchSize);
+        }
+    }
+
+    protected void benchmarkAdd(final Mode mode, final int batchSize) throws Exception {
+        checkBatchSize(batchSize);
+        final Queue queue = (mode == Mode.PUSH) ? addPushQueue : addPullQueue;
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(batchSize);
+        benchmark("taskqueue.add", params("mode", mode, "batchSize", batchSize), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                List<TaskOptions> tasks = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    tasks.add(createTask(mode, "add"));
+                }
+                List<TaskHandle> handles = queue.add(tasks);
+                Assert.assertEquals(batchSize, handles.size());
+            }
+        });
+        queue.purge();
+    }
+
+    protected void benchmarkLease(final Lease lease, final int batchSize, int threads) throws Exception {
+        int invocations = Integer.parseInt(getBenchmarkProperty("benchmark.taskqueue.lease.invocations", "5"));
+        BenchmarkOptions options = getBenchmarkOptions().setInvocations(invocations).setThreads(threads).setOperationsPerInvocation(batchSize);
+
+        // leased tasks are deleted, so there needs to be a batch per invocation, and no other tasks
+        purge(pullQueue);
+        final String tag = "lease-" + System.nanoTime();
+        int total = (options.getWarmupIterations() + options.getMeasurementIterations()) * invocations * threads * batchSize;
+        List<TaskOptions> tasks = new ArrayList<>(MAX_BATCH_SIZE);
+        for (int i = 0; i < total; i++) {
+            tasks.add(createTask(Mode.PULL, tag));
+            if (tasks.size() == MAX_BATCH_SIZE) {
+                pullQueue.add(tasks);
+                tasks.clear();
+            }
+        }
+        if (tasks.isEmpty() == false) {
+            pullQueue.add(tasks);
+        }
+
+        benchmark("taskqueue.lease", params("lease", lease, "batchSize", batchSize, "threads", threads), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                List<TaskHandle> leased;
+                if (lease == Lease.LEASE) {
+                    leased = pullQueue.leaseTasks(LEASE_SECONDS, TimeUnit.SECONDS, batchSize);
+                } else {
+                    leased = pullQueue.leaseTasksByTag(LEASE_SECONDS, TimeUnit.SECONDS, batchSize, tag);
+                }
+                Assert.assertEquals(batchSize, leased.size());
+                pullQueue.deleteTask(leased);
+            }
+        });
+    }
+
+    /**
+     * Purge is asynchronous, this waits until the queue statistics show no tasks.
+     */
+    private static void purge(Queue queue) throws InterruptedException {
+        queue.purge();
+        long timeout = Long.parseLong(getBenchmarkProperty("benchmark.taskqueue.purge.timeout", "30000"));
+        long start = System.currentTimeMillis();
+        while (queue.fetchStatistics().getNumTasks() > 0) {
+            if (System.currentTimeMillis() - start > timeout) {
+                throw new IllegalStateException(String.format("Queue %s not purged after %sms", queue.getQueueName(), timeout));
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Each iteration enqueues all tasks in batches and waits for them to be executed,
+     * throughput is executed tasks per second from the first enqueue to the last execution.
+     * Enqueueing, polling and collecting a run are requests of their own, the tasks may take longer than a request.
+     */
+    private void benchmarkPushLatency(URL url, int tasks, int batchSize) throws Exception {
+        BenchmarkOptions options = getBenchmarkOptions();
+        long timeout = Long.parseLong(getBenchmarkProperty("benchmark.taskqueue.push.timeout", "120000"));
+
+        for (int i = 0; i < options.getWarmupIterations(); i++) {
+            String run = invoke(url, "enqueuePush", tasks, batchSize);
+            waitForPush(url, run, tasks, timeout);
+            invoke(url, "discardPush", run, tasks);
+        }
+
+        StringBuilder runs = new StringBuilder();
+        for (int i = 0; i < options.getMeasurementIterations(); i++) {
+            String run = invoke(url, "enqueuePush", tasks, batchSize);
+            waitForPush(url, run, tasks, timeout);
+            runs.append(runs.length() > 0 ? "," : "").append(run);
+        }
+        invoke(url, "reportPushLatency", tasks, batchSize, runs.toString());
+    }
+
+    private void waitForPush(URL url, String run, int tasks, long timeout) throws Exception {
+        long start = System.currentTimeMillis();
+        int executed = Integer.parseInt(invoke(url, "countPush", run));
+        while (executed < tasks) {
+            if (System.currentTimeMillis() - start > timeout) {
+                throw new IllegalStateException(String.format("Only %s of %s push tasks executed in %s ms.", executed, tasks, timeout));
+            }
+            sync(100);
+            executed = Integer.parseInt(invoke(url, "countPush", run));
+        }
+    }
+
+    /**
+     * @return the run, which tags the tasks' PushLatencyServlet entities
+     */
+    protected String enqueuePush(int tasks, int batchSize) throws Exception {
+        checkBatchSize(batchSize);
+        String run = "push-" + System.nanoTime();
+        List<TaskOptions> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < tasks; i++) {
+            batch.add(withUrl(PUSH_URL)
+                .param(PushLatencyServlet.RUN, run)
+                .param(PushLatencyServlet.ENQUEUED, String.valueOf(System.currentTimeMillis())));
+            if (batch.size() == batchSize) {
+                pushQueue.add(batch);
+                batch.clear();
+            }
+        }
+        if (batch.isEmpty() == false) {
+            pushQueue.add(batch);
+        }
+        return run;
+    }
+
+    protected int countPush(String run) {
+        return DatastoreServiceFactory.getDatastoreService().prepare(createPushQuery(run)).countEntities(FetchOptions.Builder.withDefaults());
+    }
+
+    /**
+     * @param runs comma separated runs of the measured iterations
+     */
+    protected void reportPushLatency(int tasks, int batchSize, String runs) throws Exception {
+        String[] split = runs.split(",");
+        BenchmarkOptions options = getBenchmarkOptions().setInvocations(1).setOperationsPerInvocation(tasks).setMeasurementIterations(split.length);
+        Histogram latency = new Histogram(3);
+        double[] throughput = new double[split.length];
+        for (int i = 0; i < split.length; i++) {
+            throughput[i] = collectPush(split[i], tasks, latency);
+        }
+        report(new BenchmarkResult("taskqueue.push.latency", params("tasks", tasks, "batchSize", batchSize), options, throughput, latency, (long) tasks * throughput.length));
+    }
+
+    /**
+     * Deletes a warmup run's entities.
+     */
+    protected void discardPush(String run, int tasks) {
+        collectPush(run, tasks, new Histogram(3));
+    }
+
+    /**
+     * @return executed tasks per second, from the first enqueue to the last execution
+     */
+    private double collectPush(String run, int tasks, Histogram latency) {
+        DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+        List<Entity> executed = ds.prepare(createPushQuery(run)).asList(FetchOptions.Builder.withDefaults());
+        // tasks are delivered at least once, PushLatencyServlet keys its entities by task name
+        Assert.assertTrue(String.format("Only %s of %s push tasks executed.", executed.size(), tasks), executed.size() >= tasks);
+
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        List<Key> keys = new ArrayList<>(executed.size());
+        for (Entity entity : executed) {
+            long enqueued = (Long) entity.getProperty(PushLatencyServlet.ENQUEUED);
+            long millis = (Long) entity.getProperty(PushLatencyServlet.LATENCY);
+            latency.recordValue(TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis)));
+            start = Math.min(start, enqueued);
+            end = Math.max(end, enqueued + millis);
+            keys.add(entity.getKey());
+        }
+        ds.delete(keys);
+
+        return tasks * 1000.0 / Math.max(1, end - start);
+    }
+
+    private static Query createPushQuery(String run) {
+        return new Query(PushLatencyServlet.KIND).setFilter(new Query.FilterPredicate(PushLatencyServlet.RUN, Query.FilterOperator.EQUAL, run));
+    }
+
+    private static TaskOptions createTask(Mode mode, String tag) {
+        if (mode == Mode.PULL) {
+            return withMethod(TaskOptions.Method.PULL).tag(tag).payload("payload");
+        } else {
+            return withUrl(PUSH_URL).countdownMillis(COUNTDOWN_MILLIS).payload("payload");
+        }
+    }
+
+    private static void checkBatchSize(int batchSize) {
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH_SIZE + ": " + batchSize);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.tck.benchmark.urlfetch;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.appengine.api.urlfetch.FetchOptions;
+import com.google.appengine.api.urlfetch.HTTPMethod;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.appengine.api.urlfetch.URLFetchServiceFactory;
+import com.google.appengine.tck.base.TestContext;
+import com.google.appengine.tck.benchmark.BenchmarkTestBase;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOperation;
+import com.google.appengine.tck.benchmark.harness.BenchmarkOptions;
+import com.google.appengine.tck.benchmark.harness.BenchmarkResult;
+import com.google.appengine.tck.benchmark.support.ResponderServlet;
+import com.google.apphosting.api.ApiProxy;
+import org.HdrHistogram.Histogram;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * URLFetchService.fetchAsync fan-out against the application's own ResponderServlet.
+ * <p/>
+ * Each invocation issues benchmark.urlfetch.fanouts concurrent fetches and waits for all of them,
+ * so throughput is in fetches per second; the responder sleeps benchmark.urlfetch.latencies millis
+ * and returns benchmark.urlfetch.sizes bytes.
+ * Latency is that of the whole fan-out. Every result also has the latency of a single fetch, measured with
+ * SERIAL_FETCHES fetches one after another, and the achieved concurrency, i.e. fan-out times single fetch latency
+ * over fan-out latency; it is 1 for fully serialized fetches and tops out at the environment's limit
+ * of concurrent fetches per request.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+public class URLFetchBenchmarkTest extends BenchmarkTestBase {
+    private static final String RESPOND_PATH = "/benchmark/respond";
+    private static final double DEADLINE = 60.0; // seconds
+    private static final int SERIAL_FETCHES = 10;
+    private static final double MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Deployment
+    public static WebArchive getDeployment() {
+        WebArchive war = getBenchmarkDeployment(new TestContext().setWebXmlFile("web-urlfetch-benchmark.xml"));
+        war.addClass(ResponderServlet.class);
+        return war;
+    }
+
+    @Test
+    @RunAsClient
+    public void testFetchAsync(@ArquillianResource URL url) throws Exception {
+        for (int fanout : getIntValues("benchmark.urlfetch.fanouts", "1,10,50")) {
+            for (int latency : getIntValues("benchmark.urlfetch.latencies", "0,100")) {
+                for (int size : getIntValues("benchmark.urlfetch.sizes", "1024,102400")) {
+                    invoke(url, "benchmarkFetchAsync", fanout, latency, size);
+                }
+            }
+        }
+    }
+
+    protected void benchmarkFetchAsync(final int fanout, int latency, final int size) throws Exception {
+        if (fanout < 1) {
+            throw new IllegalArgumentException("Fan-out must be positive: " + fanout);
+        }
+        final URLFetchService service = URLFetchServiceFactory.getURLFetchService();
+        final URL url = getResponderUrl(latency, size);
+        BenchmarkOptions options = getBenchmarkOptions().setOperationsPerInvocation(fanout);
+        BenchmarkResult result = measure("urlfetch.fetchAsync", params("fanout", fanout, "latency", latency, "size", size), options, new BenchmarkOperation() {
+            public void invoke() throws Exception {
+                List<Future<HTTPResponse>> futures = new ArrayList<>(fanout);
+                for (int i = 0; i < fanout; i++) {
+                    futures.add(service.fetchAsync(createRequest(url)));
+                }
+                for (Future<HTTPResponse> future : futures) {
+                    assertResponse(future.get(), size);
+                }
+            }
+        });
+
+        // warm by now
+        Histogram serial = new Histogram(3);
+        for (int i = 0; i < SERIAL_FETCHES; i++) {
+            long start = System.nanoTime();
+            assertResponse(service.fetch(createRequest(url)), size);
+            serial.recordValue(System.nanoTime() - start);
+        }
+        double single = serial.getValueAtPercentile(50);
+        result.addMetric("single.latency.ms", single / MILLIS);
+        report(result.addMetric("concurrency", fanout * single / Math.max(1, result.getLatency().getMean())));
+    }
+
+    private static HTTPRequest createRequest(URL url) {
+        return new HTTPRequest(url, HTTPMethod.GET, FetchOptions.Builder.withDeadline(DEADLINE));
+    }
+
+    private static void assertResponse(HTTPResponse response, int size) {
+        Assert.assertEquals(200, response.getResponseCode());
+        Assert.assertEquals(size, response.getContent().length);
+    }
+
+    private static URL getResponderUrl(int latency, int size) throws Exception {
+        ApiProxy.Environment env = ApiProxy.getCurrentEnvironment();
+        Object hostname = env.getAttributes().get("com.google.appengine.runtime.default_version_hostname");
+        return new URL(String.format("http://%s%s?%s=%s&%s=%s", hostname, RESPOND_PATH, ResponderServlet.LATENCY, latency, ResponderServlet.SIZE, size));
+    }
+}
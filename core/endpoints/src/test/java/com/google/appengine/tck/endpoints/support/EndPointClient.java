@@ -44,6 +44,8 @@ import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
@@ -68,6 +70,12 @@ public class EndPointClient {
         return doRequest(new HttpPost(url.toURI()));
     }
 
+    public String doPost(URL url, String json) throws Exception {
+        HttpPost post = new HttpPost(url.toURI());
+        post.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+        return doRequest(post);
+    }
+
     public String doPut(URL url) throws Exception {
         return doRequest(new HttpPut(url.toURI()));
     }
@@ -36,7 +36,7 @@ import org.jboss.shrinkwrap.api.spec.WebArchive;
 public abstract class CacheTestBase extends TestBase {
     protected static final String STR_VALUE = "str_value";
     protected static final String KEY1 = "key1";
-    protected static final int overhead = 1024;   // space for key value
+    public static final int overhead = 1024;   // space for key value
     protected static final String str1mb = getBigString(1024 * 1024 - overhead);
     protected static final String str1K = getBigString(1024);
 
@@ -71,7 +71,7 @@ public abstract class CacheTestBase extends TestBase {
         return war;
     }
 
-    protected static String getBigString(int len) {
+    public static String getBigString(int len) {
         char[] chars = new char[len];
         for (int i = 0; i < len; i++) {
             chars[i] = 'x';